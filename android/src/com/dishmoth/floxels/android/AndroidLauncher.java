@@ -12,6 +12,7 @@ import android.os.Bundle;
 
 import com.badlogic.gdx.backends.android.AndroidApplication;
 import com.badlogic.gdx.backends.android.AndroidApplicationConfiguration;
+import com.dishmoth.floxels.Env;
 import com.dishmoth.floxels.FloxelsGame;
 
 public class AndroidLauncher extends AndroidApplication {
@@ -22,6 +23,7 @@ public class AndroidLauncher extends AndroidApplication {
 		lockScreenOrientation();
 		AndroidApplicationConfiguration config = new AndroidApplicationConfiguration();
 		config.useWakelock = true;
+		Env.setTaskPool(new ThreadTaskPool());
 		initialize(new FloxelsGame(), config);
 	}
   
@@ -0,0 +1,154 @@
+/*
+ *  ThreadTaskPool.java
+ *  Copyright (c) 2016 Simon Hern
+ *  Contact: dishmoth@yahoo.co.uk, dishmoth.com, github.com/dishmoth
+ */
+
+package com.dishmoth.floxels.android;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.dishmoth.floxels.TaskPool;
+
+// runs the parts of a task across the cores of the device
+// (older versions of Android have no fork/join pool, so this uses a plain
+//  thread pool, with the calling thread always taking a share of the parts
+//  so that a task started from inside another one cannot get stuck waiting)
+public class ThreadTaskPool extends TaskPool {
+
+  // worker threads (one per core, so that a background job still leaves
+  // threads free to help the game thread with its own tasks)
+  private final ExecutorService mExecutor;
+
+  // number of threads that can run parts at the same time
+  private final int mNumThreads;
+
+  // the parts of one call to run(), shared out between threads
+  // (the first exception thrown by any part is passed on to the caller once
+  //  every part has finished)
+  static private class Parts implements Runnable {
+    private final Task          mTask;
+    private final int           mNumParts;
+    private final AtomicInteger mNextPart = new AtomicInteger(0),
+                                mNumDone  = new AtomicInteger(0);
+    private Throwable           mError    = null;
+    Parts(Task task, int numParts) {
+      mTask = task;
+      mNumParts = numParts;
+    }
+    public void run() {
+      int part;
+      while ( (part = mNextPart.getAndIncrement()) < mNumParts ) {
+        try {
+          mTask.run(part);
+        } catch ( Throwable ex ) {
+          synchronized ( this ) { if ( mError == null ) mError = ex; }
+        } finally {
+          if ( mNumDone.incrementAndGet() == mNumParts ) {
+            synchronized ( this ) { notifyAll(); }
+          }
+        }
+      }
+    }
+    // (an interrupt cannot cut this short, since the helpers may still be
+    //  using the task's data, so it is noted and passed on afterwards)
+    void waitForParts() {
+      boolean interrupted = false;
+      Throwable error;
+      synchronized ( this ) {
+        while ( mNumDone.get() < mNumParts ) {
+          try {
+            wait();
+          } catch ( InterruptedException ex ) {
+            interrupted = true;
+          }
+        }
+        error = mError;
+      }
+      if ( interrupted ) Thread.currentThread().interrupt();
+      if ( error instanceof RuntimeException ) throw (RuntimeException)error;
+      if ( error instanceof Error ) throw (Error)error;
+      if ( error != null ) throw new RuntimeException(error);
+    }
+  } // class ThreadTaskPool.Parts
+
+  // a task running in the background
+  static private class BackgroundJob extends Job {
+    private final Future<?> mFuture;
+    BackgroundJob(Future<?> future) { mFuture = future; }
+    @Override
+    public boolean done() { return mFuture.isDone(); }
+  } // class ThreadTaskPool.BackgroundJob
+
+  // constructor
+  public ThreadTaskPool() {
+
+    mNumThreads = Runtime.getRuntime().availableProcessors();
+    mExecutor = Executors.newFixedThreadPool(Math.max(1, mNumThreads),
+                                             new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "floxels-worker");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+
+  } // constructor
+
+  // number of threads available
+  @Override
+  public int numThreads() { return mNumThreads; }
+
+  // run every part of a task, returning once they are all complete
+  @Override
+  public void run(Task task, int numParts) {
+
+    if ( numParts <= 1 || mNumThreads <= 1 ) {
+      super.run(task, numParts);
+      return;
+    }
+
+    Parts parts = new Parts(task, numParts);
+    final int numHelpers = Math.min(numParts, mNumThreads) - 1;
+    for ( int k = 0 ; k < numHelpers ; k++ ) mExecutor.execute(parts);
+    parts.run();
+    parts.waitForParts();
+
+  } // run()
+
+  // start running every part of a task in the background, returning at once
+  @Override
+  public Job start(final Task task, final int numParts) {
+
+    if ( numParts <= 0 || mNumThreads <= 1 ) {
+      return super.start(task, numParts);
+    }
+
+    return new BackgroundJob(mExecutor.submit(new Runnable() {
+      public void run() { ThreadTaskPool.this.run(task, numParts); }
+    }));
+
+  } // start()
+
+  // wait until a job from start() is complete
+  @Override
+  public void finish(Job job) {
+
+    if ( !(job instanceof BackgroundJob) ) {
+      super.finish(job);
+      return;
+    }
+
+    try {
+      ((BackgroundJob)job).mFuture.get();
+    } catch ( Exception ex ) {
+      throw new RuntimeException(ex);
+    }
+
+  } // finish()
+
+} // class ThreadTaskPool
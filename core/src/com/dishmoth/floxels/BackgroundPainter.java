@@ -41,12 +41,18 @@ public class BackgroundPainter {
     
   } // constructor
 
-  // simple fractal noise sum
-  static private float calcNoise(Perlin2D noise, float x, float y) {
+  // simple fractal noise sum along a row of the image
+  // (xs and xs2 are the positions for the two layers of noise, values2 is
+  //  work space, and the result goes in values)
+  static private void calcNoise(Perlin2D noise, float xs[], float xs2[], 
+                                float y, float values[], float values2[]) {
     
-    final float x1 = 2*x + 0.213f,
-                y1 = 2*y + 0.312f;
-    return noise.value(x,y) + 0.8f*noise.value(x1,y1);
+    final float y2 = 2*y + 0.312f;
+    noise.valueRow(xs, y, values);
+    noise.valueRow(xs2, y2, values2);
+    for ( int k = 0 ; k < values.length ; k++ ) {
+      values[k] = values[k] + 0.8f*values2[k];
+    }
     
   } // calcNoise()
   
@@ -71,12 +77,32 @@ public class BackgroundPainter {
     final float deltaX = kGradientDeltaX*scale,
                 deltaY = kGradientDeltaY*scale;
     final float deltaLen = (float)Math.sqrt(deltaX*deltaX + deltaY*deltaY);
+    
+    // (the noise is evaluated a row at a time, at the pixel positions and 
+    //  at positions offset from them, for both layers of the noise)
+    final int n = kNoiseImageSize;
+    float xsPixel[]  = new float[n],
+          xsPixel2[] = new float[n],
+          xsShift[]  = new float[n],
+          xsShift2[] = new float[n];
+    for ( int ix = 0 ; ix < n ; ix++ ) {
+      final float x = ix*scale;
+      xsPixel[ix]  = x;
+      xsPixel2[ix] = 2*x + 0.213f;
+      xsShift[ix]  = x + deltaX;
+      xsShift2[ix] = 2*(x + deltaX) + 0.213f;
+    }
+    float noise0[] = new float[n],
+          noise1[] = new float[n],
+          work[]   = new float[n];
+    
     for ( int iy = 0 ; iy < kNoiseImageSize ; iy++ ) {
+      final float y = iy*scale;
+      calcNoise(noise, xsShift, xsShift2, y+deltaY, noise1, work);
+      calcNoise(noise, xsPixel, xsPixel2, y, noise0, work);
       for ( int ix = 0 ; ix < kNoiseImageSize ; ix++ ) {
-        final float x  = ix*scale,
-                    y  = iy*scale;
-        final float f1 = calcNoise(noise, x+deltaX, y+deltaY),
-                    f0 = calcNoise(noise, x, y);
+        final float f1 = noise1[ix],
+                    f0 = noise0[ix];
         final float df = (f1 - f0)/deltaLen;
         final float h = Math.min(1.0f, Math.max(0.0f, 
                           (df - kDarkCutoff)/(kLightCutoff - kDarkCutoff)));
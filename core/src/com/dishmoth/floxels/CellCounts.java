@@ -0,0 +1,86 @@
+/*
+ *  CellCounts.java
+ *  Copyright (c) 2016 Simon Hern
+ *  Contact: dishmoth@yahoo.co.uk, dishmoth.com, github.com/dishmoth
+ */
+
+package com.dishmoth.floxels;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+// a count for each cell of a flow's top grid, kept only for the blocks of
+// the base grid that have been written to (as for a sparse
+// SourceAccumulator), so the storage follows the floxels rather than the
+// size of the grid
+// (code writing to a block must fetch its array using touch(); the cell
+//  (jx,jy) of the block is then at index jx + jy*refineFactor in that array)
+public class CellCounts {
+
+  // size of the base grid
+  private final int mBaseXSize,
+                    mBaseYSize;
+
+  // size of a block of the base grid in cells of the top grid
+  private final int mRefineFactor;
+
+  // the counts for each block (index is x + y*mBaseXSize), with each
+  // block's values laid out row by row (null if not written to)
+  private final int mBlocks[][];
+
+  // block arrays not currently in use (all zero)
+  private final ArrayList<int[]> mSpareBlocks;
+
+  // the blocks that have been written to (the first mNumTouched entries)
+  private final int mTouchedBlocks[];
+  private int       mNumTouched;
+
+  // constructor
+  public CellCounts(int baseXSize, int baseYSize, int refineFactor) {
+
+    assert( baseXSize > 0 && baseYSize > 0 );
+    assert( refineFactor > 0 );
+
+    mBaseXSize = baseXSize;
+    mBaseYSize = baseYSize;
+    mRefineFactor = refineFactor;
+
+    mBlocks = new int[mBaseXSize*mBaseYSize][];
+    mSpareBlocks = new ArrayList<int[]>();
+    mTouchedBlocks = new int[mBaseXSize*mBaseYSize];
+    mNumTouched = 0;
+
+  } // constructor
+
+  // the array that holds the counts for a block of the base grid, ready
+  // for changing them
+  public int[] touch(int kx, int ky) {
+
+    assert( kx >= 0 && kx < mBaseXSize );
+    assert( ky >= 0 && ky < mBaseYSize );
+
+    final int b = kx + ky*mBaseXSize;
+    if ( mBlocks[b] == null ) {
+      mTouchedBlocks[mNumTouched++] = b;
+      final int last = mSpareBlocks.size() - 1;
+      mBlocks[b] = ( last >= 0 ) ? mSpareBlocks.remove(last)
+                                 : new int[mRefineFactor*mRefineFactor];
+    }
+    return mBlocks[b];
+
+  } // touch()
+
+  // set all of the counts to zero
+  public void clear() {
+
+    for ( int n = 0 ; n < mNumTouched ; n++ ) {
+      final int b = mTouchedBlocks[n];
+      Arrays.fill(mBlocks[b], 0);
+      mSpareBlocks.add(mBlocks[b]);
+      mBlocks[b] = null;
+    }
+    mNumTouched = 0;
+
+  } // clear()
+
+} // class CellCounts
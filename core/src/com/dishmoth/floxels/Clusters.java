@@ -39,8 +39,35 @@ public class Clusters {
   // subsequently holds the size rating for the local cluster
   private final int mData[][];
   
-  // workspace
-  private int mClusters[];
+  // bits for the neighbours that a cell of the cluster grid connects to
+  static private final int kLinkWest      = 1,
+                           kLinkNorth     = 2,
+                           kLinkNorthWest = 4,
+                           kLinkNorthEast = 8,
+                           kLinkEast      = 16,
+                           kLinkSouth     = 32,
+                           kLinkSouthEast = 64,
+                           kLinkSouthWest = 128;
+  
+  // which neighbours each cell of the cluster grid connects to (kLinkWest,
+  // etc.), worked out from the walls whenever the layout changes
+  private final byte mLinks[][];
+  
+  // the owner's wall layout when mLinks was last filled (see Flow)
+  private int mLinksLayout;
+  
+  // the clusters found so far, as a disjoint-set forest
+  // (each cluster label points to a parent label, and the label at the 
+  //  root of each tree holds the total size of all the clusters in it,
+  //  which is what the score is worked out from, and the number of labels
+  //  in the tree, which decides which root a merge keeps)
+  // (a cell creates at most one label, so the arrays never need to grow)
+  private final int mParent[],
+                    mSize[],
+                    mNumLabels[];
+  
+  // cluster score for each root label (or -1 if it is yet to be worked out)
+  private final int mScore[];
   
   // index of next cluster to assign
   private int mNextCluster;
@@ -68,7 +95,15 @@ public class Clusters {
     mClusterScoreScale = maxClusterScore() / (logMax * logMax);
     
     mData = new int[mYSize][mXSize];
-    mClusters = new int[100];
+    
+    mLinks = new byte[mYSize][mXSize];
+    findLinks();
+    
+    final int maxClusters = mXSize*mYSize + 1;
+    mParent    = new int[maxClusters];
+    mSize      = new int[maxClusters];
+    mNumLabels = new int[maxClusters];
+    mScore     = new int[maxClusters];
     
     reset();
     
@@ -133,20 +168,16 @@ public class Clusters {
     
   } // clusterScore()
   
-  // calculate clusters for the particles
-  public void makeClusters() {
+  // work out which neighbours each cell of the cluster grid connects to
+  // (only the walls of the base grid separate cells; a diagonal link needs
+  //  a path round one side or the other of the corner)
+  private void findLinks() {
     
-    //print("makeClusters():");
-    
-    assert( !mClustersReady );
     final float baseWalls[][][] = mOwner.walls();
     
     for ( int jy = 0 ; jy < mYSize ; jy++ ) {
       for ( int jx = 0 ; jx < mXSize ; jx++ ) {
         
-        final int num = mData[jy][jx]; 
-        if ( num == 0 ) continue;
-
         final int ky = jy/mSubdivisions,
                   kx = jx/mSubdivisions;
         float walls[] = baseWalls[ky][kx];
@@ -163,17 +194,72 @@ public class Clusters {
 
         final int iy = jy - ky*mSubdivisions,
                   ix = jx - kx*mSubdivisions;
-            
-        int wIndex = ( ix > 0 || west ) ? mData[jy][jx-1] : 0,
-            nIndex = ( iy > 0 || north ) ? mData[jy-1][jx] : 0,
-            nwIndex = ( (ix > 0 || west) 
-                     && (iy > 0 || north)
-                     && (ix > 0 || iy > 0 || nw) ) 
-                      ? mData[jy-1][jx-1] : 0,
-            neIndex = ( (ix < mSubdivisions-1 || east) 
-                     && (iy > 0 || north)
-                     && (ix < mSubdivisions-1 || iy > 0 || ne) ) 
-                      ? mData[jy-1][jx+1] : 0;
+        
+        final boolean linkW = ( jx > 0 && (ix > 0 || west) ),
+                      linkN = ( jy > 0 && (iy > 0 || north) ),
+                      linkE = ( jx < mXSize-1 
+                                && (ix < mSubdivisions-1 || east) );
+        
+        int links = 0;
+        if ( linkW ) links |= kLinkWest;
+        if ( linkN ) links |= kLinkNorth;
+        if ( linkW && linkN && (ix > 0 || iy > 0 || nw) ) {
+          links |= kLinkNorthWest;
+        }
+        if ( linkE && linkN && (ix < mSubdivisions-1 || iy > 0 || ne) ) {
+          links |= kLinkNorthEast;
+        }
+        mLinks[jy][jx] = (byte)links;
+        
+      }
+    }
+    
+    // the links looking south and east are the reverse of other cells' 
+    // links looking north and west
+    for ( int jy = 0 ; jy < mYSize ; jy++ ) {
+      for ( int jx = 0 ; jx < mXSize ; jx++ ) {
+        int links = mLinks[jy][jx];
+        if ( jx < mXSize-1 && (mLinks[jy][jx+1] & kLinkWest) != 0 ) {
+          links |= kLinkEast;
+        }
+        if ( jy < mYSize-1 ) {
+          final int below = mLinks[jy+1][jx];
+          if ( (below & kLinkNorth) != 0 )     links |= kLinkSouth;
+          if ( jx < mXSize-1 && 
+               (mLinks[jy+1][jx+1] & kLinkNorthWest) != 0 ) {
+            links |= kLinkSouthEast;
+          }
+          if ( jx > 0 && (mLinks[jy+1][jx-1] & kLinkNorthEast) != 0 ) {
+            links |= kLinkSouthWest;
+          }
+        }
+        mLinks[jy][jx] = (byte)links;
+      }
+    }
+    
+    mLinksLayout = mOwner.wallLayout();
+    
+  } // findLinks()
+  
+  // calculate clusters for the particles
+  public void makeClusters() {
+    
+    //print("makeClusters():");
+    
+    assert( !mClustersReady );
+    if ( mLinksLayout != mOwner.wallLayout() ) findLinks();
+    
+    for ( int jy = 0 ; jy < mYSize ; jy++ ) {
+      for ( int jx = 0 ; jx < mXSize ; jx++ ) {
+        
+        final int num = mData[jy][jx]; 
+        if ( num == 0 ) continue;
+
+        final int links = mLinks[jy][jx];
+        int wIndex  = ( (links & kLinkWest) != 0 )      ? mData[jy][jx-1]   : 0,
+            nIndex  = ( (links & kLinkNorth) != 0 )     ? mData[jy-1][jx]   : 0,
+            nwIndex = ( (links & kLinkNorthWest) != 0 ) ? mData[jy-1][jx-1] : 0,
+            neIndex = ( (links & kLinkNorthEast) != 0 ) ? mData[jy-1][jx+1] : 0;
         
         //System.out.println("["+jy+"]["+jx+"] num=" + num + " nw="+nwIndex
         //                   + " n="+nIndex+" ne="+neIndex+" w="+wIndex);
@@ -203,13 +289,17 @@ public class Clusters {
       } // for (jx)
     } // for (jy)
     
+    for ( int cluster = 1 ; cluster < mNextCluster ; cluster++ ) {
+      mScore[cluster] = -1;
+    }
+    
     for ( int iy = 0 ; iy < mYSize ; iy++ ) {
       for ( int ix = 0 ; ix < mXSize ; ix++ ) {
-        int cluster = mData[iy][ix];
+        final int cluster = mData[iy][ix];
         if ( cluster == 0 ) continue;
-        while ( mClusters[cluster] < 0 ) cluster = -mClusters[cluster];
-        final int size = mClusters[cluster];
-        mData[iy][ix] = clusterScore(size);
+        final int root = findRoot(cluster);
+        if ( mScore[root] < 0 ) mScore[root] = clusterScore(mSize[root]);
+        mData[iy][ix] = mScore[root];
       }
     }
     
@@ -220,83 +310,64 @@ public class Clusters {
   // create a new cluster with the specified number of members
   private int newCluster(int num) {
 
-    //print("newCluster(" + num + ") before:");
-
     assert( num > 0 );
     final int cluster = mNextCluster++;
-    if ( cluster >= mClusters.length ) {
-      mClusters = Arrays.copyOf(mClusters, 2*mClusters.length);
-    }
-    mClusters[cluster] = num;
-
-    //print("newCluster() after:");
+    assert( cluster < mParent.length );
+    mParent[cluster] = cluster;
+    mSize[cluster] = num;
+    mNumLabels[cluster] = 1;
     return cluster;
     
   } // newCluster()
   
+  // the root label of a cluster's tree
+  // (each label passed on the way is pointed to its grandparent, which 
+  //  roughly halves the length of the path for next time)
+  private int findRoot(int cluster) {
+    
+    assert( cluster > 0 && cluster < mNextCluster );
+    while ( mParent[cluster] != cluster ) {
+      final int next = mParent[mParent[cluster]];
+      mParent[cluster] = next;
+      cluster = next;
+    }
+    return cluster;
+    
+  } // findRoot()
+  
   // add members to a cluster
   private void addToCluster(int cluster, int num) {
 
-    //print("addToCluster(" + cluster + "," + num + ") before:");
-
-    assert( cluster < mNextCluster );
     assert( num > 0 );
-    while ( mClusters[cluster] < 0 ) {
-      final int next = -mClusters[cluster];
-      assert( next < cluster );
-      cluster = next;
-    }
-    mClusters[cluster] += num;
-    
-    //print("addToCluster() after:");
+    mSize[findRoot(cluster)] += num;
 
   } // addToCluster()
   
-  // combine clusters
+  // combine clusters, returning the root label of the result
+  // (the tree with fewer labels is attached below the other, so trees stay
+  //  shallow however the particles are spread between the labels)
   private int mergeClusters(int cluster1, int cluster2) {
     
-    assert( cluster1 > 0 && cluster1 < mNextCluster );
-    assert( cluster2 > 0 && cluster2 < mNextCluster  );
-    if ( cluster1 == cluster2 ) return cluster1;
-    
-    //print("mergeClusters(" + cluster1 + "," + cluster2 + ") before:");
-
-    int clusterA = cluster1,
-        clusterB = cluster2;
+    int rootA = findRoot(cluster1),
+        rootB = findRoot(cluster2);
+    if ( rootA == rootB ) return rootA;
     
-    while ( mClusters[clusterA] < 0 ) {
-      final int next = -mClusters[clusterA];
-      assert( next < clusterA );
-      clusterA = next;
-    }
-    while ( mClusters[clusterB] < 0 ) {
-      final int next = -mClusters[clusterB]; 
-      assert( next < clusterB );
-      clusterB = next;
+    if ( mNumLabels[rootA] < mNumLabels[rootB] ) {
+      final int temp = rootA;
+      rootA = rootB;
+      rootB = temp;
     }
-
-    int mainCluster = Math.min(clusterA, clusterB),
-        otherCluster = Math.max(clusterA, clusterB);
-    assert( mClusters[mainCluster] > 0 );
-    assert( mClusters[otherCluster] > 0 );
-    if ( mainCluster != otherCluster ) {
-      mClusters[mainCluster] += mClusters[otherCluster];
-      mClusters[otherCluster] = -mainCluster;
-    }
-
-    if ( cluster1 != mainCluster ) mClusters[cluster1] = -mainCluster;
-    if ( cluster2 != mainCluster ) mClusters[cluster2] = -mainCluster;
-    
-    //print("mergeClusters() after:");
-    assert( mainCluster > 0 && mainCluster < mNextCluster );
-    return mainCluster;
+    mParent[rootB] = rootA;
+    mSize[rootA] += mSize[rootB];
+    mNumLabels[rootA] += mNumLabels[rootB];
+    return rootA;
     
   } // mergeClusters()
   
   //private void print(String title) {
   //  System.out.println(title);
   //  for ( int k = 1 ; k < mNextCluster ; k++ ) {
-  //    System.out.print(k + ":" + mClusters[k] + " ");
+  //    System.out.print(k + ":" + mParent[k] + "/" + mSize[k] + " ");
   //  }
   //  System.out.println("");
   //}
@@ -80,7 +80,7 @@ public class Cursor extends Sprite implements SourceTerm {
   private final int mFloxelType;
   
   // local helper floxels to simplify painting
-  private Floxel mPaintFloxels[] = null;
+  private FloxelStore mPaintFloxels = null;
 
   // give special treatment when displaying the last captured floxel  
   private float mFinalFaceTimer;
@@ -121,6 +121,11 @@ public class Cursor extends Sprite implements SourceTerm {
   // how long since we played the 'bubble on' sound effect
   private float mBubbleSoundTimer;
   
+  // weights for the attraction and repulsion source terms (or null), and
+  // the refinement factor they were worked out for
+  private SourceKernel mKernel;
+  private int          mKernelRefineFactor;
+  
   // constructor
   public Cursor(int numToSummon, int floxelType, Floxels floxels) {
     
@@ -156,15 +161,18 @@ public class Cursor extends Sprite implements SourceTerm {
     
     mBubbleSoundTimer = 0.0f;
     
-    mPaintFloxels = new Floxel[kFloxelCrowdNumDrawn];
-    for ( int k = 0 ; k < mPaintFloxels.length ; k++ ) {
-      mPaintFloxels[k] = new Floxel();
-      mPaintFloxels[k].mState = Floxel.State.NORMAL;
-      mPaintFloxels[k].mType = (byte)mFloxelType;
+    mKernel = null;
+    mKernelRefineFactor = 0;
+    
+    mPaintFloxels = new FloxelStore(kFloxelCrowdNumDrawn);
+    for ( int k = 0 ; k < kFloxelCrowdNumDrawn ; k++ ) {
+      mPaintFloxels.setState(k, Floxel.NORMAL);
+      mPaintFloxels.mType[k] = (byte)mFloxelType;
     }
 
-    mFinalFace = (byte)Env.randomInt( Floxel.NUM_EXPRESSIONS );
-    mFinalShade = (byte)Env.randomInt( Floxel.NUM_SHADES );
+    final RandomStream random = Env.random(Env.RANDOM_FACES);
+    mFinalFace = (byte)random.nextInt( Floxel.NUM_EXPRESSIONS );
+    mFinalShade = (byte)random.nextInt( Floxel.NUM_SHADES );
     
   } // constructor
   
@@ -344,35 +352,35 @@ public class Cursor extends Sprite implements SourceTerm {
     assert( mState == State.CAPTURING || mNumCaptured == 0 );
     if ( mState == State.CAPTURING && mNumCaptured > 0 ) {
       
+      final RandomStream random = Env.random(Env.RANDOM_FACES);
       final float crowdRadius = floxelRadius();
       final int crowdNum = Math.min( mNumCaptured, kFloxelCrowdNumDrawn );
       for ( int k = 0 ; k < crowdNum ; k++ ) {
         float dx, dy;
         do {
-          dx = Env.randomFloat(-1.0f, +1.0f);
-          dy = Env.randomFloat(-1.0f, +1.0f);
+          dx = random.nextFloat(-1.0f, +1.0f);
+          dy = random.nextFloat(-1.0f, +1.0f);
         } while ( dx*dx + dy*dy > 1.0 );
 
-        mPaintFloxels[k].mX = mXPos + crowdRadius*dx; 
-        mPaintFloxels[k].mY = mYPos + crowdRadius*dy;
-        mPaintFloxels[k].mShade = (byte)Env.randomInt( Floxel.NUM_SHADES );
-        mPaintFloxels[k].mFace = (byte)Env.randomInt( Floxel.NUM_EXPRESSIONS );
+        mPaintFloxels.mX[k] = mXPos + crowdRadius*dx; 
+        mPaintFloxels.mY[k] = mYPos + crowdRadius*dy;
+        mPaintFloxels.mShade[k] = (byte)random.nextInt( Floxel.NUM_SHADES );
+        mPaintFloxels.mFace[k] = (byte)random.nextInt( Floxel.NUM_EXPRESSIONS );
       }
       
       mFinalFaceTimer -= dt;
       if ( mFinalFaceTimer <= 0.0f ) {
-        mFinalFaceTimer = Env.randomFloat(kFinalFaceMinTime, 
-                                          kFinalFaceMaxTime);
-        mFinalFace = (byte)Env.randomInt( Floxel.NUM_EXPRESSIONS );
+        mFinalFaceTimer = random.nextFloat(kFinalFaceMinTime, 
+                                           kFinalFaceMaxTime);
+        mFinalFace = (byte)random.nextInt( Floxel.NUM_EXPRESSIONS );
       }
       if ( mFinalShade == 0 )                        mFinalShade += 1;
       else if ( mFinalShade == Floxel.NUM_SHADES-1 ) mFinalShade -= 1;
-      else if ( Env.randomBoolean() )                mFinalShade += 1;
+      else if ( random.nextBoolean() )               mFinalShade += 1;
       else                                           mFinalShade -= 1;
       
-      Floxel finalFace = mPaintFloxels[crowdNum-1];
-      finalFace.mShade = mFinalShade;
-      finalFace.mFace = mFinalFace;
+      mPaintFloxels.mShade[crowdNum-1] = mFinalShade;
+      mPaintFloxels.mFace[crowdNum-1] = mFinalFace;
     }
     
   } // Sprite.advance()
@@ -435,7 +443,7 @@ public class Cursor extends Sprite implements SourceTerm {
   
   // attract and repel floxels
   @Override
-  public void addToSource(int floxelType, float[][] source, int refineFactor) {
+  public void addStamps(int floxelType, SourceStamps stamps) {
 
     float strength = 0.0f;
     if ( floxelType == mFloxelType ) {
@@ -451,20 +459,32 @@ public class Cursor extends Sprite implements SourceTerm {
     }
     if ( strength == 0.0f ) return;
 
-    final int range = Math.round(kAttractRange*refineFactor);
+    final int refineFactor = stamps.refineFactor();
+    if ( mKernel == null || mKernelRefineFactor != refineFactor ) {
+      mKernel = makeKernel( Math.round(kAttractRange*refineFactor) );
+      mKernelRefineFactor = refineFactor;
+    }
+    
     final int ix = (int)Math.floor(mXPos*refineFactor),
               iy = (int)Math.floor(mYPos*refineFactor);
-
+    stamps.add(floxelType, mKernel, ix, iy, strength);
+    
+  } // SourceTerm.addStamps()
+  
+  // weights for the source terms, increasing towards the edge of a square
+  static private SourceKernel makeKernel(int range) {
+    
+    final int size = 2*range+1;
+    float weights[] = new float[size*size];
     for ( int dy = -range ; dy <= +range ; dy++ ) {
       for ( int dx = -range ; dx <= +range ; dx++ ) {
-        if ( ix+dx < 0 || ix+dx >= source[0].length ||
-             iy+dy < 0 || iy+dy >= source.length ) continue;
         float scale = Math.max(Math.abs(dx), Math.abs(dy))/(range+1.0f);
-        source[iy+dy][ix+dx] += scale*strength;
+        weights[(dx+range) + (dy+range)*size] = scale;
       }
     }
+    return new SourceKernel(range, weights);
     
-  } // SourceTerm.addToSource()
+  } // makeKernel()
   
   // display the cursor and captured floxels
   @Override
@@ -479,7 +499,7 @@ public class Cursor extends Sprite implements SourceTerm {
     
     final int crowdNum = Math.min( mNumCaptured, kFloxelCrowdNumDrawn );
     for ( int k = 0 ; k < crowdNum ; k++ ) {
-      painter.draw(batch, mPaintFloxels[k], colour);
+      painter.draw(batch, mPaintFloxels, k, colour);
     }
     
     // draw the circle
@@ -26,7 +26,9 @@ public class EndBlast extends Sprite implements SourceTerm {
   static private final float kRepulsionStrength = 10000.0f;
   
   // the repulsion is spread across an area
-  static private final float kRepulsionDistance = 0.15f;
+  static private final float kRepulsionDistance = 0.15f,
+                             kRepulsionDiagonal = kRepulsionDistance
+                                                  / (float)Math.sqrt(2);
 
   // how fast the blast spreads (tile units per second)
   static private final float kStunSpeed = 20.0f;
@@ -87,41 +89,43 @@ public class EndBlast extends Sprite implements SourceTerm {
   } // Sprite.advance()
 
   // add repulsion to the source terms
-  public void addToSource(int floxelType, float source[][], int refineFactor) {
+  @Override
+  public void addStamps(int floxelType, SourceStamps stamps) {
 
     final float fade = Math.min(1.0f, mLifeSeconds/kFadeTimeSeconds);
     final float strength = fade*kRepulsionStrength/16;
 
     final float d1 = kRepulsionDistance,
-                d2 = kRepulsionDistance/(float)Math.sqrt(2); 
+                d2 = kRepulsionDiagonal; 
     
-    addToSource(source, refineFactor, mXPos,    mYPos,    8*strength);
+    addPoint(stamps, floxelType, mXPos,    mYPos,    8*strength);
     
-    addToSource(source, refineFactor, mXPos+d1, mYPos,    strength);
-    addToSource(source, refineFactor, mXPos,    mYPos+d1, strength);
-    addToSource(source, refineFactor, mXPos-d1, mYPos,    strength);
-    addToSource(source, refineFactor, mXPos,    mYPos-d1, strength);
+    addPoint(stamps, floxelType, mXPos+d1, mYPos,    strength);
+    addPoint(stamps, floxelType, mXPos,    mYPos+d1, strength);
+    addPoint(stamps, floxelType, mXPos-d1, mYPos,    strength);
+    addPoint(stamps, floxelType, mXPos,    mYPos-d1, strength);
     
-    addToSource(source, refineFactor, mXPos+d2, mYPos+d2, strength);
-    addToSource(source, refineFactor, mXPos-d2, mYPos+d2, strength);
-    addToSource(source, refineFactor, mXPos+d2, mYPos-d2, strength);
-    addToSource(source, refineFactor, mXPos-d2, mYPos-d2, strength);
+    addPoint(stamps, floxelType, mXPos+d2, mYPos+d2, strength);
+    addPoint(stamps, floxelType, mXPos-d2, mYPos+d2, strength);
+    addPoint(stamps, floxelType, mXPos+d2, mYPos-d2, strength);
+    addPoint(stamps, floxelType, mXPos-d2, mYPos-d2, strength);
     
-  } // SourceTerm.addToSource()
+  } // SourceTerm.addStamps()
 
   // add a single point to the source
-  private void addToSource(float source[][], int refineFactor, 
-                           float x, float y, float strength) {
+  private void addPoint(SourceStamps stamps, int floxelType,
+                        float x, float y, float strength) {
     
+    final int refineFactor = stamps.refineFactor();
     int ix = (int)Math.floor( x*refineFactor ),
         iy = (int)Math.floor( y*refineFactor );
     
-    iy = Math.max(0, Math.min(source.length-1, iy));
-    ix = Math.max(0, Math.min(source[iy].length-1, ix));
+    iy = Math.max(0, Math.min(stamps.ySize()-1, iy));
+    ix = Math.max(0, Math.min(stamps.xSize()-1, ix));
     
-    source[iy][ix] += strength;
+    stamps.add(floxelType, SourceKernel.POINT, ix, iy, strength);
     
-  } // addToSource()
+  } // addPoint()
   
   // display the blast radius
   @Override
@@ -42,16 +42,29 @@ public class Env {
   // whether to display debug messages
   static private boolean kDebugMode = true;
   
+  // independent streams of random numbers (see random())
+  static public final int RANDOM_SIMULATION  = 0, // the game itself
+                          RANDOM_FACES       = 1, // floxel appearances
+                          RANDOM_SOUND       = 2, // timing of sound effects
+                          RANDOM_MAZE        = 3, // order of maze changes
+                          NUM_RANDOM_STREAMS = 4;
+  
+  // the random number streams, and the seed they were all made from
+  static private RandomStream kRandomStreams[];
+  static private long         kRandomSeed;
+  
   // assorted helper objects
-  static private Random       kRandom;
   static private MouseMonitor kMouseMonitor;
   static private Sounds       kSounds;
   static private Painter      kPainter;
   
+  // runs jobs across multiple threads (if the platform supplies threads)
+  static private TaskPool kTaskPool = new TaskPool();
+  
   // this sets up a global Env for the applet
   static public void initialize() {
   
-    kRandom       = new Random();
+    seedRandom( new RandomStream().nextLong() );
     kMouseMonitor = new MouseMonitor();
     kSounds       = new Sounds();
     kPainter      = new Painter();
@@ -125,6 +138,15 @@ public class Env {
   // collection of classes for drawing stuff
   static public Painter painter() { return kPainter; }
   
+  // return reference to the (possibly multi-threaded) task runner
+  static public TaskPool taskPool() { return kTaskPool; }
+  
+  // replace the task runner (call before the game is created)
+  static public void setTaskPool(TaskPool pool) {
+    assert( pool != null );
+    kTaskPool = pool;
+  } // setTaskPool()
+  
   // end the game, close the window/shut the app
   static public void exit() { Gdx.app.exit(); }
 
@@ -134,29 +156,50 @@ public class Env {
     Gdx.graphics.setCursor( Gdx.graphics.newCursor(p,0,0) );
   } // hideCursor()
   
+  // restart every random number stream from one seed
+  // (the same seed gives the same numbers, so a game can be replayed)
+  static public void seedRandom(long seed) {
+    kRandomSeed = seed;
+    RandomStream master = new RandomStream(seed);
+    kRandomStreams = new RandomStream[NUM_RANDOM_STREAMS];
+    for ( int k = 0 ; k < NUM_RANDOM_STREAMS ; k++ ) {
+      kRandomStreams[k] = master.split();
+    }
+  } // seedRandom()
+  
+  // the seed last passed to seedRandom()
+  static public long randomSeed() { return kRandomSeed; }
+  
+  // one of the random number streams (RANDOM_SIMULATION, etc.)
+  // (a stream must only be used by one thread; a parallel job should give
+  //  each part a stream of its own using RandomStream.split())
+  static public RandomStream random(int stream) {
+    assert( stream >= 0 && stream < NUM_RANDOM_STREAMS );
+    return kRandomStreams[stream];
+  } // random()
+  
   // assorted functions for returning random numbers
+  // (these all use the RANDOM_SIMULATION stream)
   static public float randomFloat() { // in range [0,1]
-    return kRandom.nextFloat(); 
+    return kRandomStreams[RANDOM_SIMULATION].nextFloat(); 
   } // randomFloat()
   static public float randomFloat(float a, float b) { // in range [a,b] 
-    return ( a + (b-a)*kRandom.nextFloat() ); 
+    return kRandomStreams[RANDOM_SIMULATION].nextFloat(a, b); 
   } // randomFloat()
   static public double randomDouble() { // in range [0,1]
-    return kRandom.nextDouble(); 
+    return kRandomStreams[RANDOM_SIMULATION].nextDouble(); 
   } // randomDouble()
   static public double randomDouble(double a, double b) { // in range [a,b] 
-    return ( a + (b-a)*kRandom.nextDouble() ); 
+    return ( a + (b-a)*kRandomStreams[RANDOM_SIMULATION].nextDouble() ); 
   } // randomDouble()
   static public int randomInt(int n) { // in range [0,n-1] 
-    return kRandom.nextInt(n); 
+    return kRandomStreams[RANDOM_SIMULATION].nextInt(n); 
   } // randomInt()
   static public int randomInt(int a, int b) { // in range [a,b]
-    if ( a > b )      return ( b + kRandom.nextInt(a-b+1) );
-    else if ( a < b ) return ( a + kRandom.nextInt(b-a+1) );
-    else              return a;
+    return kRandomStreams[RANDOM_SIMULATION].nextInt(a, b);
   } // randomInt()
   static public boolean randomBoolean() { 
-    return kRandom.nextBoolean(); 
+    return kRandomStreams[RANDOM_SIMULATION].nextBoolean(); 
   } // randomBoolean()
 
   // assorted modulo-type functions
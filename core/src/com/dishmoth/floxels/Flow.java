@@ -6,6 +6,8 @@
 
 package com.dishmoth.floxels;
 
+import java.util.ArrayList;
+
 // class for generating flow field
 public class Flow {
 
@@ -17,6 +19,35 @@ public class Flow {
   // value in the mBaseWalls array that indicates an opening
   static public final float OPEN = Float.MAX_VALUE;
 
+  // if true then the top grid is only smoothed in blocks that have changed
+  // since they were last smoothed (and in blocks near them), with the 
+  // coarser grids looking after everything else
+  // (only possible if the solver keeps its solution between solves)
+  static private final boolean kSkipUnchangedBlocks = true;
+  
+  // blocks this close to a changed block are also smoothed
+  static private final int kChangeHalo = 1;
+  
+  // amount an in-flow value can drift before its block counts as changed
+  // (the vents alter the in-flow a little on every tick)
+  static private final float kInFlowTolerance = 0.01f;
+  
+  // every block is smoothed on the top grid at least this often (in solves)
+  static private final int kRefreshInterval = 8;
+
+  // if true then each solve also works out the velocities for the blocks 
+  // where they are wanted (see setDesiredSolutionLevel()), so getVelocity()
+  // only has to look them up
+  static private final boolean kCacheVelocities = true;
+  
+  // if true then cached velocities are interpolated between cell centres
+  // (otherwise the velocity jumps as a position moves from cell to cell)
+  static private final boolean kInterpolateVelocities = true;
+
+  // flows with at least this many blocks only store the top grid for the
+  // blocks where it is wanted (see sparse())
+  static private final int kMinSparseBlocks = 256;
+
   // the base grid (no refinement)
   private final int mBaseXSize,
                     mBaseYSize;
@@ -30,13 +61,80 @@ public class Flow {
   // (an optimization if a quality solution is only needed in some regions) 
   private int mDesiredSolutionLevel[][];
   
+  // how refined the solution is made on the base grid during a solve
+  // (a copy of the desired level taken by prepareSolve())
+  private int mSolveLevel[][];
+  
+  // source terms and walls for each block as they were when the block was
+  // last smoothed on the top grid
+  // (the source terms are kept as a separate array for each block, indexed
+  //  kx + ky*mBaseXSize, and only for blocks that are wanted on the top grid)
+  private float mSolvedSource[][];
+  private float mSolvedWalls[][][];
+  
+  // which blocks have changed since they were last smoothed on the top grid
+  private boolean mChangedBlocks[][];
+  
+  // blocks solved on the top grid that do not need smoothing this time
+  // (see findChangedBlocks())
+  private boolean mUnchangedBlocks[][];
+  
+  // if true then every block is treated as changed on the next solve
+  private boolean mAllChanged;
+  
+  // number of solves so far (for refreshing unchanged blocks)
+  private int mNumSolves;
+  
+  // number of times the wall layout has changed (see wallLayout())
+  private int mWallLayout;
+  
+  // whether the top grid only stores the blocks being solved there
+  private final boolean mSparse;
+  
   // the most refined solution grid
   private FlowGrid mTopGrid = null;
   
+  // the potential field seen by getVelocity() and gridData()
+  // (either the top grid's own array, or a copy of it that only changes
+  //  when publishSolution() is called; see setDoubleBuffered())
+  // (null if the flow is sparse)
+  private float mVisibleData[];
+  
+  // the potential field on the grid below the top one, as seen by 
+  // getVelocity() in blocks without cached velocities (the coarser grid's
+  // own array, or a copy of it in the same way as mVisibleData)
+  // (null unless the flow is sparse)
+  private float mVisibleCoarseData[];
+  
+  // whether the solution is solved in one copy and viewed in another
+  private boolean mDoubleBuffered;
+  
+  // velocity components cached for each block (see fillVelocityCache()),
+  // indexed kx + ky*mBaseXSize (null for blocks without cached values)
+  private float mVelocityX[][],
+                mVelocityY[][];
+  
+  // the velocity cache filled by the current solve
+  // (the same as the one above unless the flow is double-buffered)
+  private float mNextVelocityX[][],
+                mNextVelocityY[][];
+  
+  // arrays no longer in use by the velocity cache or the solved source terms
+  private ArrayList<float[]> mSpareVelocities = new ArrayList<float[]>(),
+                             mSpareSources    = new ArrayList<float[]>();
+  
+  // work space for fillVelocityCache()
+  private Vel mFillVel = new Vel();
+  
   // refinement factor and level for the topmost grid
   private int mRefineFactor,
               mRefineLevel;
 
+  // source terms as they are built up by the game
+  // (the solver reads them directly, less a constant that balances them
+  //  against the in-flow, see FlowGrid.balanceSource())
+  private SourceAccumulator mSources;
+
   // constructor
   public Flow(int baseXSize, int baseYSize, int refineLevel) {
     
@@ -59,18 +157,73 @@ public class Flow {
     mDesiredSolutionLevel = new int[mBaseYSize][mBaseXSize];
     resetDesiredSolutionLevel(mRefineLevel);
     
-    mTopGrid = new FlowGrid(this, mRefineLevel);
+    mSolveLevel = new int[mBaseYSize][mBaseXSize];
+    
+    mSparse = ( kCacheVelocities && mRefineLevel > 0 &&
+                mBaseXSize*mBaseYSize >= kMinSparseBlocks );
+    mSources = new SourceAccumulator(mBaseXSize, mBaseYSize, mRefineFactor,
+                                     mSparse);
+    
+    mTopGrid = new FlowGrid(this, mRefineLevel, mSparse);
+    mVisibleData = mTopGrid.data();
+    mVisibleCoarseData = ( mSparse ? mTopGrid.coarserGrid().data() : null );
+    mDoubleBuffered = false;
+    
+    if ( kSkipUnchangedBlocks && mTopGrid.keepsSolution() && 
+         mRefineLevel > 0 ) {
+      mSolvedSource = new float[mBaseYSize*mBaseXSize][];
+      mSolvedWalls = new float[mBaseYSize][mBaseXSize][4];
+      mChangedBlocks = new boolean[mBaseYSize][mBaseXSize];
+      mUnchangedBlocks = new boolean[mBaseYSize][mBaseXSize];
+    } else {
+      mSolvedSource = null;
+      mSolvedWalls = null;
+      mChangedBlocks = null;
+      mUnchangedBlocks = null;
+    }
+    mAllChanged = true;
+    mNumSolves = 0;
+    mWallLayout = 0;
+    
+    if ( kCacheVelocities ) {
+      mVelocityX = new float[mBaseYSize*mBaseXSize][];
+      mVelocityY = new float[mBaseYSize*mBaseXSize][];
+    } else {
+      mVelocityX = mVelocityY = null;
+    }
+    mNextVelocityX = mVelocityX;
+    mNextVelocityY = mVelocityY;
     
   } // constructor
 
   // access to wall layout and in-flow values
+  // (call wallsChanged() after adding or removing walls)
   public float[][][] walls() { return mBaseWalls; }
 
-  // access to potential field
-  public float[][] data() { return mTopGrid.data(); }
+  // the wall layout has changed (not needed if only in-flow values change)
+  public void wallsChanged() { 
+    
+    mTopGrid.wallsChanged(); 
+    mAllChanged = true;
+    mWallLayout++;
+    
+  } // wallsChanged()
+
+  // a number that changes each time wallsChanged() is called
+  // (so that other objects can tell when to rebuild data about the walls)
+  public int wallLayout() { return mWallLayout; }
 
-  // access to source terms
-  public float[][] source() { return mTopGrid.source(); }
+  // access to potential field (flattened, index is x + y*gridXSize())
+  // (null if the flow is sparse)
+  public float[] gridData() { return mVisibleData; }
+
+  // the source terms, together with a record of which blocks are in use
+  // (any block written to must be marked using touch())
+  public SourceAccumulator sources() { return mSources; }
+
+  // size of the top grid (the x-size is also the step between rows)
+  public int gridXSize() { return mTopGrid.xSize(); }
+  public int gridYSize() { return mTopGrid.ySize(); }
 
   // top grid's refinement level
   public int refineLevel() { return mRefineLevel; }
@@ -82,23 +235,192 @@ public class Flow {
   public int baseXSize() { return mBaseXSize; }
   public int baseYSize() { return mBaseYSize; }
   
+  // whether the top grid is only stored for blocks that are wanted there
+  // (see setDesiredSolutionLevel()), which lets big mazes be used without
+  // needing memory for every cell at the finest level
+  // (the potential field is not available as an array in this case, and 
+  //  elsewhere getVelocity() falls back on the coarser grid's solution)
+  public boolean sparse() { return mSparse; }
+  
   // clear the current solution
-  public void reset() { mTopGrid.reset(); }
+  public void reset() { 
+    
+    mTopGrid.reset(); 
+    mSources.clear();
+    if ( mVelocityX != null ) {
+      for ( int b = 0 ; b < mVelocityX.length ; b++ ) {
+        releaseVelocities(mVelocityX, mVelocityY, b);
+        releaseVelocities(mNextVelocityX, mNextVelocityY, b);
+      }
+    }
+    publishSolution();
+    mAllChanged = true;
+    
+  } // reset()
   
   // clear the current source terms
+  // (only the blocks that have been written to are visited)
   public void clearSource() { 
     
-    float source[][] = mTopGrid.source();
-    for ( int ky = 0 ; ky < source.length ; ky++ ) {
-      for ( int kx = 0, len = source[ky].length ; kx < len ; kx++ ) {
-        source[ky][kx] = 0.0f;
-      }
-    }
+    mSources.clear();
     
   } // clearSource()
   
   // produce a solution (multi-grid method)
-  public void solve() { mTopGrid.solve(); }
+  // (the solver uses the source terms less a constant so that they 
+  //  balance the in-flow, see FlowGrid.balanceSource())
+  public void solve() { 
+    
+    prepareSolve();
+    solvePrepared();
+    publishSolution();
+    
+  } // solve()
+
+  // first stage of solve(): take a snapshot of everything the solver needs 
+  // that the rest of the game might change while it is running
+  public void prepareSolve() {
+    
+    if ( mChangedBlocks != null ) findChangedBlocks();
+    for ( int ky = 0 ; ky < mBaseYSize ; ky++ ) {
+      System.arraycopy(mDesiredSolutionLevel[ky], 0, 
+                       mSolveLevel[ky], 0, mBaseXSize);
+    }
+    mNumSolves++;
+    
+    if ( mNextVelocityX != null ) {
+      final int size = (mRefineFactor+2)*(mRefineFactor+2);
+      for ( int ky = 0 ; ky < mBaseYSize ; ky++ ) {
+        for ( int kx = 0 ; kx < mBaseXSize ; kx++ ) {
+          final int b = kx + ky*mBaseXSize;
+          if ( mDesiredSolutionLevel[ky][kx] < mRefineLevel ) {
+            releaseVelocities(mNextVelocityX, mNextVelocityY, b);
+          } else if ( mNextVelocityX[b] == null ) {
+            mNextVelocityX[b] = spareArray(mSpareVelocities, size);
+            mNextVelocityY[b] = spareArray(mSpareVelocities, size);
+          }
+        }
+      }
+    }
+    
+  } // prepareSolve()
+  
+  // take an array from a list of spare ones, or make a new one
+  static private float[] spareArray(ArrayList<float[]> spares, int size) {
+    
+    final int last = spares.size() - 1;
+    if ( last < 0 ) return new float[size];
+    
+    final float array[] = spares.remove(last);
+    assert( array.length == size );
+    return array;
+    
+  } // spareArray()
+  
+  // stop caching velocities for one block of a velocity cache
+  private void releaseVelocities(float velX[][], float velY[][], int block) {
+    
+    if ( velX[block] == null ) return;
+    mSpareVelocities.add(velX[block]);
+    mSpareVelocities.add(velY[block]);
+    velX[block] = velY[block] = null;
+    
+  } // releaseVelocities()
+  
+  // second stage of solve(): the solve itself
+  // (this can be run on another thread, so long as the walls and source 
+  //  terms are left alone until it finishes)
+  public void solvePrepared() { 
+    
+    mTopGrid.solve(); 
+    
+    if ( mNextVelocityX != null ) {
+      for ( int ky = 0 ; ky < mBaseYSize ; ky++ ) {
+        for ( int kx = 0 ; kx < mBaseXSize ; kx++ ) {
+          if ( mNextVelocityX[kx + ky*mBaseXSize] != null ) {
+            fillVelocityCache(kx, ky);
+          }
+        }
+      }
+    }
+    
+  } // solvePrepared()
+  
+  // final stage of solve(): make the new solution visible to getVelocity()
+  public void publishSolution() {
+    
+    final float data[] = mTopGrid.data();
+    if ( mVisibleData != data ) {
+      System.arraycopy(data, 0, mVisibleData, 0, data.length);
+    }
+    
+    if ( mSparse ) {
+      final float coarseData[] = mTopGrid.coarserGrid().data();
+      if ( mVisibleCoarseData != coarseData ) {
+        System.arraycopy(coarseData, 0, mVisibleCoarseData, 0, 
+                         coarseData.length);
+      }
+    }
+    
+    if ( mNextVelocityX != mVelocityX ) {
+      float temp[][] = mVelocityX;
+      mVelocityX = mNextVelocityX;
+      mNextVelocityX = temp;
+      
+      temp = mVelocityY;
+      mVelocityY = mNextVelocityY;
+      mNextVelocityY = temp;
+    }
+    
+  } // publishSolution()
+  
+  // whether getVelocity() reads from a separate copy of the solution 
+  // (needed if the flow is solved in the background while the velocities
+  //  are in use; see solvePrepared())
+  public void setDoubleBuffered(boolean doubleBuffered) {
+    
+    if ( doubleBuffered == mDoubleBuffered ) return;
+    mDoubleBuffered = doubleBuffered;
+    
+    final float data[] = mTopGrid.data();
+    if ( data != null ) {
+      mVisibleData = ( doubleBuffered ? new float[data.length] : data );
+    } else {
+      final float coarseData[] = mTopGrid.coarserGrid().data();
+      mVisibleCoarseData = ( doubleBuffered ? new float[coarseData.length] 
+                                            : coarseData );
+      if ( mVisibleCoarseData != coarseData ) {
+        System.arraycopy(coarseData, 0, mVisibleCoarseData, 0, 
+                         coarseData.length);
+      }
+    }
+    
+    if ( mVelocityX != null ) {
+      if ( doubleBuffered ) {
+        mNextVelocityX = new float[mVelocityX.length][];
+        mNextVelocityY = new float[mVelocityY.length][];
+      } else {
+        for ( int b = 0 ; b < mNextVelocityX.length ; b++ ) {
+          releaseVelocities(mNextVelocityX, mNextVelocityY, b);
+        }
+        mNextVelocityX = mVelocityX;
+        mNextVelocityY = mVelocityY;
+      }
+    }
+    
+    if ( mVisibleData != data ) {
+      System.arraycopy(data, 0, mVisibleData, 0, data.length);
+    }
+    
+  } // setDoubleBuffered()
+
+  // how close the last solve got to the answer (negative if not measured)
+  // (see FlowGrid.relativeResidual())
+  public float residual() { return mTopGrid.lastResidual(); }
+  
+  // number of multi-grid cycles used by the last solve (zero if the old
+  // solution was still good enough)
+  public int numCycles() { return mTopGrid.lastNumCycles(); }
 
   // calculate and return velocity at a position
   public void getVelocity(float x, float y, Vel vel) {
@@ -106,42 +428,333 @@ public class Flow {
     assert( x > 0.0f && x < mBaseXSize );
     assert( y > 0.0f && y < mBaseYSize );
 
-    final int ix = (int)(x*mRefineFactor),
-              iy = (int)(y*mRefineFactor);
+    final float fx = x*mRefineFactor,
+                fy = y*mRefineFactor;
+    final int ix = (int)fx,
+              iy = (int)fy;
     
     final int kx = ( ix >> mRefineLevel ),
               ky = ( iy >> mRefineLevel );
+    
+    final int block = kx + ky*mBaseXSize;
+    if ( mVelocityX == null || mVelocityX[block] == null ) {
+      if ( mVisibleData != null ) {
+        cellVelocity(mVisibleData, mRefineLevel, ix, iy, vel);
+      } else {
+        coarseVelocity(x, y, vel);
+      }
+      return;
+    }
+    
+    final float velX[] = mVelocityX[block],
+                velY[] = mVelocityY[block];
+    final int stride = mRefineFactor + 2;
+    
+    if ( !kInterpolateVelocities ) {
+      final int k = (ix - (kx << mRefineLevel) + 1)
+                  + (iy - (ky << mRefineLevel) + 1)*stride;
+      vel.x = velX[k];
+      vel.y = velY[k];
+      return;
+    }
+    
+    // position relative to the centre of the block's border cell
+    final float px = fx - (kx << mRefineLevel) + 0.5f,
+                py = fy - (ky << mRefineLevel) + 0.5f;
+    final int jx = (int)px,
+              jy = (int)py;
+    assert( jx >= 0 && jx <= mRefineFactor );
+    assert( jy >= 0 && jy <= mRefineFactor );
+    final float hx = px - jx,
+                hy = py - jy;
+    
+    final int k = jx + jy*stride;
+    final float x0 = velX[k]        + hx*(velX[k+1]        - velX[k]),
+                x1 = velX[k+stride] + hx*(velX[k+stride+1] - velX[k+stride]),
+                y0 = velY[k]        + hx*(velY[k+1]        - velY[k]),
+                y1 = velY[k+stride] + hx*(velY[k+stride+1] - velY[k+stride]);
+    vel.x = x0 + hy*(x1 - x0);
+    vel.y = y0 + hy*(y1 - y0);
+    
+  } // getVelocity()
+
+  // velocity at a position for a sparse flow in a block without cached 
+  // velocities, from the solution on the grid below the top one
+  // (the velocities at the centres of the nearest cells are interpolated,
+  //  but only cells in the same block are used, so nothing leaks through
+  //  the walls)
+  private void coarseVelocity(float x, float y, Vel vel) {
+    
+    assert( mSparse );
+    
+    final float data[] = mVisibleCoarseData;
+    final int level = mRefineLevel - 1,
+              n = ( 1 << level );
+    final int kx = (int)x,
+              ky = (int)y,
+              ix0 = (kx << level),
+              iy0 = (ky << level);
+    
+    if ( !kInterpolateVelocities ) {
+      cellVelocity(data, level, (int)(x*n), (int)(y*n), vel);
+      return;
+    }
+    
+    // position relative to the centre of the block's first cell
+    final float px = x*n - ix0 - 0.5f,
+                py = y*n - iy0 - 0.5f;
+    final int jx = (int)Math.floor(px),
+              jy = (int)Math.floor(py);
+    final float hx = px - jx,
+                hy = py - jy;
+    final int ixa = ix0 + Math.max(jx, 0),
+              ixb = ix0 + Math.min(jx+1, n-1),
+              iya = iy0 + Math.max(jy, 0),
+              iyb = iy0 + Math.min(jy+1, n-1);
+    
+    cellVelocity(data, level, ixa, iya, vel);
+    final float xaa = vel.x, yaa = vel.y;
+    cellVelocity(data, level, ixb, iya, vel);
+    final float xba = vel.x, yba = vel.y;
+    cellVelocity(data, level, ixa, iyb, vel);
+    final float xab = vel.x, yab = vel.y;
+    cellVelocity(data, level, ixb, iyb, vel);
+    final float xbb = vel.x, ybb = vel.y;
+    
+    final float x0 = xaa + hx*(xba - xaa),
+                x1 = xab + hx*(xbb - xab),
+                y0 = yaa + hx*(yba - yaa),
+                y1 = yab + hx*(ybb - yab);
+    vel.x = x0 + hy*(x1 - x0);
+    vel.y = y0 + hy*(y1 - y0);
+    
+  } // coarseVelocity()
+
+  // velocity in one cell of a grid (from the supplied potential for a grid
+  // at any level of refinement, or from the top grid itself if the flow is
+  // sparse and the array is null)
+  private void cellVelocity(float data[], int level, int ix, int iy, 
+                            Vel vel) {
+    
+    assert( data != null || level == mRefineLevel );
+    
+    final int kx = ( ix >> level ),
+              ky = ( iy >> level );
     float walls[] = mBaseWalls[ky][kx];
     
-    float data[][] = mTopGrid.data();
-    final float delta = 1.0f/mRefineFactor;
+    final int refineFactor = ( 1 << level ),
+              nx = refineFactor*mBaseXSize;
+    final float delta = 1.0f/refineFactor;
+    
+    final int iy0 = (ky << level),
+              iy1 = iy0 + refineFactor-1,
+              ix0 = (kx << level),
+              ix1 = ix0 + refineFactor-1;
+    
+    final float here = potential(data, nx, ix, iy);
     
-    final int iy0 = (ky << mRefineLevel),
-              iy1 = iy0 + mRefineFactor-1,
-              ix0 = (kx << mRefineLevel),
-              ix1 = ix0 + mRefineFactor-1;
-        
     if ( ix == ix0 && walls[Env.WEST] != OPEN ) {
-      vel.x = 0.5f*((data[iy][ix+1] - data[iy][ix])/delta + walls[Env.WEST]);
+      vel.x = 0.5f*((potential(data, nx, ix+1, iy) - here)/delta 
+                    + walls[Env.WEST]);
     } else if ( ix == ix1 && walls[Env.EAST] != OPEN ) {
-      vel.x = 0.5f*((data[iy][ix] - data[iy][ix-1])/delta - walls[Env.EAST]);                
+      vel.x = 0.5f*((here - potential(data, nx, ix-1, iy))/delta 
+                    - walls[Env.EAST]);
     } else {
-      vel.x = (data[iy][ix+1] - data[iy][ix-1])/(2*delta);
+      vel.x = (potential(data, nx, ix+1, iy) 
+               - potential(data, nx, ix-1, iy))/(2*delta);
     }
     
     if ( iy == iy0 && walls[Env.NORTH] != OPEN ) {
-      vel.y = 0.5f*((data[iy+1][ix] - data[iy][ix])/delta + walls[Env.NORTH]);
+      vel.y = 0.5f*((potential(data, nx, ix, iy+1) - here)/delta 
+                    + walls[Env.NORTH]);
     } else if ( iy == iy1 && walls[Env.SOUTH] != OPEN ) {
-      vel.y = 0.5f*((data[iy][ix] - data[iy-1][ix])/delta - walls[Env.SOUTH]);                
+      vel.y = 0.5f*((here - potential(data, nx, ix, iy-1))/delta 
+                    - walls[Env.SOUTH]);
     } else {
-      vel.y = (data[iy+1][ix] - data[iy-1][ix])/(2*delta);
+      vel.y = (potential(data, nx, ix, iy+1) 
+               - potential(data, nx, ix, iy-1))/(2*delta);
     }    
     
-  } // getVelocity()
+  } // cellVelocity()
+  
+  // potential at one cell of a grid with rows nx long (see cellVelocity())
+  private float potential(float data[], int nx, int ix, int iy) {
+    
+    return ( data != null ) ? data[ix + iy*nx]
+                            : mTopGrid.value(ix, iy);
+    
+  } // potential()
+  
+  // work out the velocities in a block from the newly solved potential
+  // (each block also gets a border of cells from its neighbours, for 
+  //  interpolation; where there is a wall the block's own edge cells are 
+  //  repeated instead, so that nothing leaks through from the other side)
+  // (if the flow is sparse the potential comes from the block's own tile,
+  //  or from the top grid's value() for the cells around the edges)
+  private void fillVelocityCache(int kx, int ky) {
+    
+    final float data[] = mTopGrid.data(),
+                tile[] = mTopGrid.tile(kx, ky),
+                velX[] = mNextVelocityX[kx + ky*mBaseXSize],
+                velY[] = mNextVelocityY[kx + ky*mBaseXSize];
+    final float walls[] = mBaseWalls[ky][kx];
+    final int nx = mTopGrid.xSize(),
+              n = mRefineFactor,
+              stride = n + 2,
+              ix0 = (kx << mRefineLevel),
+              iy0 = (ky << mRefineLevel);
+    final float scale = 0.5f*mRefineFactor;
+    final Vel vel = mFillVel;
+    
+    final int jx0 = ( walls[Env.WEST] == OPEN && kx > 0 ) ? -1 : 0,
+              jx1 = ( walls[Env.EAST] == OPEN && kx < mBaseXSize-1 ) ? n : n-1,
+              jy0 = ( walls[Env.NORTH] == OPEN && ky > 0 ) ? -1 : 0,
+              jy1 = ( walls[Env.SOUTH] == OPEN && ky < mBaseYSize-1 ) ? n : n-1;
+    
+    for ( int jy = -1 ; jy <= n ; jy++ ) {
+      final int cy = Math.max(jy0, Math.min(jy1, jy)),
+                iy = iy0 + cy,
+                kRow = (jy+1)*stride + 1;
+      final boolean fastRow = ( cy > 0 && cy < n-1 && 
+                                ( data != null || tile != null ) );
+      
+      if ( fastRow ) {
+        final float values[] = ( data != null ) ? data : tile;
+        final int step = ( data != null ) ? nx : stride,
+                  k0 = ( data != null ) ? ix0 + 1 + iy*nx 
+                                        : 2 + (cy+1)*stride;
+        for ( int jx = 1, k = k0 ; jx < n-1 ; jx++, k++ ) {
+          velX[kRow + jx] = scale*(values[k+1] - values[k-1]);
+          velY[kRow + jx] = scale*(values[k+step] - values[k-step]);
+        }
+      }
+      
+      for ( int jx = -1 ; jx <= n ; jx++ ) {
+        if ( fastRow && jx > 0 && jx < n-1 ) continue;
+        final int cx = Math.max(jx0, Math.min(jx1, jx));
+        cellVelocity(data, mRefineLevel, ix0 + cx, iy, vel);
+        velX[kRow + jx] = vel.x;
+        velY[kRow + jx] = vel.y;
+      }
+    }
+    
+  } // fillVelocityCache()
 
   // access to the desired solution levels
   public int[][] desiredSolutionLevel() { return mDesiredSolutionLevel; }
   
+  // the solution levels to use in the current solve (see prepareSolve())
+  public int[][] solveLevel() { return mSolveLevel; }
+  
+  // blocks that are solved on the top grid but do not need smoothing there
+  // in the current solve (or null if every block is smoothed)
+  public boolean[][] unchangedBlocks() { return mUnchangedBlocks; }
+  
+  // work out which blocks need smoothing on the top grid
+  // (a block needs smoothing if its source terms or walls have changed, if 
+  //  it was not solved on the top grid by the last solve, or if it is its
+  //  turn to be refreshed, and blocks near those need smoothing too) 
+  // (this is called before the solve levels are updated, so they still 
+  //  show which blocks were solved on the top grid by the last solve)
+  private void findChangedBlocks() {
+    
+    final int stride = mSources.blockStride();
+    
+    for ( int ky = 0 ; ky < mBaseYSize ; ky++ ) {
+      for ( int kx = 0 ; kx < mBaseXSize ; kx++ ) {
+        boolean changed = mAllChanged
+                       || ( (kx + ky + mNumSolves) % kRefreshInterval == 0 )
+                       || ( mDesiredSolutionLevel[ky][kx] >= mRefineLevel &&
+                            mSolveLevel[ky][kx] < mRefineLevel );
+        
+        final float walls[] = mBaseWalls[ky][kx],
+                    solvedWalls[] = mSolvedWalls[ky][kx];
+        for ( int d = 0 ; d < 4 && !changed ; d++ ) {
+          if ( Math.abs(walls[d] - solvedWalls[d]) > kInFlowTolerance ) {
+            changed = true;
+          }
+        }
+        
+        // (a block with nothing stored counts as having had no source, and
+        //  an untouched block has no source now, so neither needs checking)
+        final float solved[] = mSolvedSource[kx + ky*mBaseXSize],
+                    source[] = mSources.block(kx, ky);
+        final boolean empty = ( solved == null && !mSources.touched(kx, ky) );
+        final int k00 = mSources.blockOffset(kx, ky);
+        for ( int iy = 0 ; iy < mRefineFactor && !changed && !empty ; iy++ ) {
+          final int k0 = k00 + iy*stride,
+                    j0 = iy*mRefineFactor - k0;
+          for ( int k = k0 ; k < k0 + mRefineFactor ; k++ ) {
+            if ( source[k] != ( (solved != null) ? solved[j0+k] : 0.0f ) ) {
+              changed = true;
+              break;
+            }
+          }
+        }
+        
+        mChangedBlocks[ky][kx] = changed;
+      }
+    }
+    
+    for ( int ky = 0 ; ky < mBaseYSize ; ky++ ) {
+      for ( int kx = 0 ; kx < mBaseXSize ; kx++ ) {
+        final int b = kx + ky*mBaseXSize;
+        mUnchangedBlocks[ky][kx] = false;
+        if ( mDesiredSolutionLevel[ky][kx] < mRefineLevel ) {
+          if ( mSolvedSource[b] != null ) {
+            mSpareSources.add(mSolvedSource[b]);
+            mSolvedSource[b] = null;
+          }
+          continue;
+        }
+        
+        if ( !nearChangedBlock(kx, ky) ) {
+          mUnchangedBlocks[ky][kx] = true;
+          continue;
+        }
+        
+        System.arraycopy(mBaseWalls[ky][kx], 0, mSolvedWalls[ky][kx], 0, 4);
+        if ( !mSources.touched(kx, ky) ) {
+          if ( mSolvedSource[b] != null ) {
+            mSpareSources.add(mSolvedSource[b]);
+            mSolvedSource[b] = null;
+          }
+          continue;
+        }
+        
+        if ( mSolvedSource[b] == null ) {
+          mSolvedSource[b] = spareArray(mSpareSources, 
+                                        mRefineFactor*mRefineFactor);
+        }
+        final float source[] = mSources.block(kx, ky);
+        final int k00 = mSources.blockOffset(kx, ky);
+        for ( int iy = 0 ; iy < mRefineFactor ; iy++ ) {
+          System.arraycopy(source, k00 + iy*stride, mSolvedSource[b], 
+                           iy*mRefineFactor, mRefineFactor);
+        }
+      }
+    }
+    
+    mAllChanged = false;
+    
+  } // findChangedBlocks()
+  
+  // whether a block is within kChangeHalo blocks of a changed block
+  private boolean nearChangedBlock(int xBlock, int yBlock) {
+    
+    final int x0 = Math.max(0, xBlock - kChangeHalo),
+              x1 = Math.min(mBaseXSize-1, xBlock + kChangeHalo),
+              y0 = Math.max(0, yBlock - kChangeHalo),
+              y1 = Math.min(mBaseYSize-1, yBlock + kChangeHalo);
+    for ( int ky = y0 ; ky <= y1 ; ky++ ) {
+      for ( int kx = x0 ; kx <= x1 ; kx++ ) {
+        if ( mChangedBlocks[ky][kx] ) return true;
+      }
+    }
+    return false;
+    
+  } // nearChangedBlock()
+  
   // set the desired solution level uniformly across the grid
   public void resetDesiredSolutionLevel(int level) {
     
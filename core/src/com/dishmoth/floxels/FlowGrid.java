@@ -6,6 +6,9 @@
 
 package com.dishmoth.floxels;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+
 // solution to Poisson's equation at a particular level of refinement 
 public class FlowGrid {
 
@@ -13,9 +16,34 @@ public class FlowGrid {
   static private final int kNumSmoothIterations = 1,
                            kNumCoarseIterations = 20;
 
+  // if true then the number of multi-grid cycles in a solve depends on how
+  // close the solution is to the answer (see relativeResidual())
+  static private final boolean kAdaptiveCycles = true;
+  
+  // residual below which a solution is good enough (in adaptive mode)
+  static private final float kResidualTolerance = 0.3f;
+  
+  // most multi-grid cycles in one solve (in adaptive mode)
+  static private final int kMaxCycles = 3;
+  
+  // number of relaxation steps before and after the coarse correction
+  // (with the simple interpolation used here, fewer is not always stable)
+  static private final int kNumCycleSmoothIterations = 2;
+  
+  // number of visits to the coarser grid in a correction cycle
+  // (1 for a V-cycle, 2 for a W-cycle)
+  static private final int kCycleIndex = 1;
+
   // if true then a full solution is only calculated in specified regions
   static private final boolean kUseDesiredSolutionLevels = true;
   
+  // if true then smoothing of large grids is shared across threads
+  // (if the platform provides any)
+  static private final boolean kUseParallelSmoothing = true;
+  
+  // grids smaller than this are not worth dividing between threads
+  static private final int kMinParallelCells = 4096;
+  
   // the base grid (no refinement)
   private final int mBaseXSize,
                     mBaseYSize;
@@ -34,14 +62,116 @@ public class FlowGrid {
   // the next grid in the multi-grid hierarchy
   private final FlowGrid mCoarserGrid;
   
-  // current solution on the grid
-  private final float mData[][];
+  // if true then the solution is only stored for the blocks being solved at
+  // this level, as separate tiles (only ever done for the top grid, whose 
+  // other blocks take their values from the coarser grid; see Flow.sparse())
+  private final boolean mSparse;
+  
+  // current solution on the grid (null if the grid is sparse)
+  // (flattened, row by row: the value for (x,y) is at index x + y*mXSize)
+  private final float mData[];
+  
+  // solution for each block (if the grid is sparse), indexed kx + ky*mBaseXSize
+  // (null for blocks not being solved; each tile has a border of cells one
+  //  wide, so its rows are mRefineFactor+2 long, and the border is filled
+  //  from around the block before the tile is smoothed, see fillBorder())
+  private final float mTiles[][];
+  
+  // tiles not currently in use (if the grid is sparse)
+  private final ArrayList<float[]> mSpareTiles;
+  
+  // the blocks that are smoothed in the current solve, in row order
+  // (if the grid is sparse)
+  private final int mSmoothedBlocks[];
+  private int       mNumSmoothedBlocks;
+  
+  // source term on the grid (flattened in the same way)
+  // (on the top grid this is the flow's own array of accumulated source 
+  //  terms, which the solver only reads, see Flow.sources(); if the top 
+  //  grid is sparse then this is null, and the source terms are read block
+  //  by block from the flow instead)
+  private final float mSource[];
+  
+  // constant taken off every source term so that overall they balance the
+  // in-flow (only ever non-zero on the top grid, see balanceSource())
+  private float mSourceShift;
+  
+  // which sides of each cell lead to a neighbouring cell
+  // (bit Env.NORTH etc. is set if open, clear if there is a wall)
+  // (only depends on the wall layout, so rebuilt only when that changes)
+  // (null if the grid is sparse, since the tiles go by the walls directly)
+  private final byte mOpenSides[];
+  
+  // in-flow contribution to each cell from its walls (zero if no walls)
+  // (rebuilt on every solve since the vents change the in-flow values)
+  // (null if the grid is sparse)
+  private final float mInFlowTerms[];
+  
+  // false if the wall layout has changed since mOpenSides was built
+  private boolean mOpenSidesReady;
+  
+  // the arrays that the smoother works on: normally the solution, source
+  // and in-flow terms, but switched to the correction arrays while a finer
+  // grid is using this one to correct its own solution
+  // (the shift is the constant taken off every value in mRhs)
+  // (the in-flow terms are null for a correction, which has none)
+  private float mPhi[],
+                mRhs[],
+                mInFlow[];
+  private float mRhsShift;
+  
+  // solution and source for correction cycles (allocated when first used)
+  private float mCorrection[],
+                mCorrectionSource[];
+  
+  // residual of the working solution (allocated when first used)
+  private float mResidual[];
   
-  // source term on the grid
-  private final float mSource[][];
+  // how close the last solve got (see relativeResidual()) and how many 
+  // multi-grid cycles it took (zero if the old solution was good enough)
+  private float mLastResidual;
+  private int   mLastNumCycles;
+  
+  // true if the current solution is no use as a starting point
+  private boolean mRestart;
+  
+  // job for smoothing bands of rows in parallel
+  private final SmoothTask mSmoothTask;
+  
+  // job for filling the borders of tiles, or smoothing them, in parallel
+  private final TileTask mTileTask;
+  
+  // smooth one colour of cells in one band of rows
+  private class SmoothTask implements TaskPool.Task {
+    int mStagger,
+        mNumRows,
+        mNumBands;
+    public void run(int band) {
+      final int row0 = (band*mNumRows)/mNumBands,
+                row1 = ((band+1)*mNumRows)/mNumBands;
+      smoothRows(mStagger, row0, row1);
+    }
+  } // class FlowGrid.SmoothTask
+  
+  // fill the borders of (or smooth one colour of cells in) a share of the
+  // tiles being smoothed
+  private class TileTask implements TaskPool.Task {
+    boolean mBorders;
+    int     mStagger,
+            mNumBands;
+    public void run(int band) {
+      final int i0 = (band*mNumSmoothedBlocks)/mNumBands,
+                i1 = ((band+1)*mNumSmoothedBlocks)/mNumBands;
+      for ( int i = i0 ; i < i1 ; i++ ) {
+        if ( mBorders ) fillBorder(mSmoothedBlocks[i]);
+        else            smoothTile(mStagger, mSmoothedBlocks[i]);
+      }
+    }
+  } // class FlowGrid.TileTask
   
   // constructor
-  public FlowGrid(Flow owner, int refineLevel) {
+  // (only the top grid can be sparse, see mSparse)
+  public FlowGrid(Flow owner, int refineLevel, boolean sparse) {
     
     assert( owner != null );
     assert( refineLevel >= 0 );
@@ -58,11 +188,46 @@ public class FlowGrid {
     mXSize = mRefineFactor * mBaseXSize;
     mYSize = mRefineFactor * mBaseYSize;
 
-    mData = new float[mYSize][mXSize];
-    mSource = new float[mYSize][mXSize];
+    mSparse = ( sparse && refineLevel > 0 );
+    mSource = ( refineLevel == mOwner.refineLevel() ) 
+              ? mOwner.sources().values()
+              : new float[mYSize*mXSize];
+    assert( (mSource == null) == mSparse );
+    mSourceShift = 0.0f;
+    
+    if ( mSparse ) {
+      mData = null;
+      mTiles = new float[mBaseYSize*mBaseXSize][];
+      mSpareTiles = new ArrayList<float[]>();
+      mSmoothedBlocks = new int[mBaseYSize*mBaseXSize];
+      mOpenSides = null;
+      mInFlowTerms = null;
+    } else {
+      mData = new float[mYSize*mXSize];
+      mTiles = null;
+      mSpareTiles = null;
+      mSmoothedBlocks = null;
+      mOpenSides = new byte[mYSize*mXSize];
+      mInFlowTerms = new float[mYSize*mXSize];
+    }
+    mNumSmoothedBlocks = 0;
+    mOpenSidesReady = false;
 
+    mPhi = mData;
+    mRhs = mSource;
+    mInFlow = mInFlowTerms;
+    mRhsShift = mSourceShift;
+    mCorrection = mCorrectionSource = mResidual = null;
+    
+    mLastResidual = 0.0f;
+    mLastNumCycles = 0;
+    mRestart = true;
+    
+    mSmoothTask = new SmoothTask();
+    mTileTask = new TileTask();
+    
     if ( mRefineLevel > 0 ) {
-      mCoarserGrid = new FlowGrid(mOwner, mRefineLevel-1);
+      mCoarserGrid = new FlowGrid(mOwner, mRefineLevel-1, false);
     } else {
       mCoarserGrid = null;
     }
@@ -74,186 +239,971 @@ public class FlowGrid {
   // set the current solution to zero
   public void reset() {
     
-    for ( int ky = 0 ; ky < mYSize ; ky++ ) {
-      for ( int kx = 0 ; kx < mXSize ; kx++ ) {
-        mData[ky][kx] = mSource[ky][kx] = 0.0f;
+    if ( mSparse ) {
+      for ( int b = 0 ; b < mTiles.length ; b++ ) {
+        if ( mTiles[b] != null ) mSpareTiles.add(mTiles[b]);
+        mTiles[b] = null;
       }
+    } else {
+      Arrays.fill(mData, 0.0f);
     }
+    mRestart = true;
     
     if ( mCoarserGrid != null ) mCoarserGrid.reset();
     
   } // reset()
 
-  // access to the solution data
-  public float[][] data() { return mData; }
+  // access to the solution data (flattened, row by row)
+  // (null if the grid is sparse, see value())
+  public float[] data() { return mData; }
+  
+  // whether the solution is only stored for the blocks being solved
+  public boolean sparse() { return mSparse; }
+  
+  // the next grid in the multi-grid hierarchy (null if this is the base)
+  public FlowGrid coarserGrid() { return mCoarserGrid; }
+  
+  // the solution for one block if the grid is sparse (null if the block is
+  // not being solved), with a border so that its rows are mRefineFactor+2 
+  // long (the border is not kept up to date, so only the inside is useful)
+  public float[] tile(int kx, int ky) { 
+    
+    return ( mSparse ? mTiles[kx + ky*mBaseXSize] : null );
   
-  // access to the source term
-  public float[][] source() { return mSource; }
+  } // tile()
+  
+  // the solution at one cell (which works whether or not the grid is sparse)
+  public float value(int ix, int iy) {
+    
+    assert( ix >= 0 && ix < mXSize );
+    assert( iy >= 0 && iy < mYSize );
+    
+    if ( !mSparse ) return mData[ix + iy*mXSize];
+    
+    final float tile[] = mTiles[ (ix >> mRefineLevel) 
+                                + (iy >> mRefineLevel)*mBaseXSize ];
+    if ( tile == null ) {
+      return mCoarserGrid.mData[ (ix >> 1) + (iy >> 1)*mCoarserGrid.mXSize ];
+    }
+    
+    final int n = mRefineFactor;
+    return tile[ (ix & (n-1)) + 1 + ((iy & (n-1)) + 1)*(n+2) ];
+    
+  } // value()
+  
+  // size of the grid (the x-size is also the step between rows)
+  public int xSize() { return mXSize; }
+  public int ySize() { return mYSize; }
+  
+  // the wall layout has changed (in-flow values can change without this)
+  public void wallsChanged() {
+    
+    mOpenSidesReady = false;
+    mRestart = true;
+    if ( mCoarserGrid != null ) mCoarserGrid.wallsChanged();
+    
+  } // wallsChanged()
+  
+  // residual after the last solve (negative if not measured)
+  public float lastResidual() { return mLastResidual; }
+  
+  // number of multi-grid cycles used by the last solve
+  public int lastNumCycles() { return mLastNumCycles; }
+  
+  // whether the solution carries over from one solve to the next 
+  // (otherwise it is rebuilt from the coarse grids every time)
+  public boolean keepsSolution() { return kAdaptiveCycles; }
   
   // advance by one step (multi-grid method)
+  // (in adaptive mode the last solution is improved by correction cycles 
+  //  until it is good enough, or until kMaxCycles is reached, so nothing is
+  //  done if it is already good enough; it is only thrown away and solved 
+  //  from scratch after a reset or a change to the walls)
   public void solve() {
 
+    prepare();
+    
+    if ( !kAdaptiveCycles ) {
+      solveNested();
+      mLastResidual = -1.0f;
+      mLastNumCycles = 1;
+      return;
+    }
+    
+    balanceSource();
+    
+    int numCycles = 0;
+    float residual = topResidual();
+    while ( residual > kResidualTolerance && numCycles < kMaxCycles ) {
+      if ( numCycles == 0 && mRestart ) {
+        solveNested();
+      } else {
+        correctionCycle();
+      }
+      numCycles++;
+      residual = topResidual();
+    }
+    mRestart = false;
+    
+    mLastResidual = residual;
+    mLastNumCycles = numCycles;
+    
+  } // solve()
+
+  // work out the constant to take off the flow's source terms so that 
+  // overall they cancel out the in-flow through the walls
+  // (the equations have no solution otherwise, and smoothing would just
+  //  shift the whole solution up or down without the residual going away)
+  // (this assumes that every part of the grid can be reached from every 
+  //  other part)
+  // (only the blocks that the game has written source terms to are summed,
+  //  and the in-flow is totalled from the walls rather than cell by cell,
+  //  so nothing here visits the whole grid)
+  private void balanceSource() {
+    
+    final float delta = 1.0f/mRefineFactor;
+    final float sourceFactor = delta*delta/4.0f;
+    
+    final SourceAccumulator sources = mOwner.sources();
+    double sum = sources.sum();
+    
+    // (each wall's in-flow is spread along the mRefineFactor cells of the
+    //  block's edge, see updateInFlowTerms())
+    final float baseWalls[][][] = mOwner.walls();
+    for ( int ky = 0 ; ky < mBaseYSize ; ky++ ) {
+      for ( int kx = 0 ; kx < mBaseXSize ; kx++ ) {
+        final float walls[] = baseWalls[ky][kx];
+        for ( int d = 0 ; d < 4 ; d++ ) {
+          if ( walls[d] != Flow.OPEN ) sum += 0.25f*walls[d]/sourceFactor;
+        }
+      }
+    }
+    
+    mSourceShift = (float)(sum/(mXSize*mYSize));
+    mRhsShift = mSourceShift;
+    
+  } // balanceSource()
+  
+  // bring the wall details up to date on all grids
+  private void prepare() {
+    
+    if ( mSparse ) {
+      updateTiles();
+    } else {
+      if ( !mOpenSidesReady ) buildOpenSides();
+      updateInFlowTerms();
+    }
+    
+    if ( mCoarserGrid != null ) mCoarserGrid.prepare();
+    
+  } // prepare()
+  
+  // solve on the coarsest grid first, then use each solution as the 
+  // starting point for the next finer grid
+  private void solveNested() {
+
     if ( mCoarserGrid != null ) {
-      restrict();
-      mCoarserGrid.solve();
-      prolongate();
+      if ( mSparse ) restrictTiles(mCoarserGrid.mSource);
+      else           restrict(mSource, mSourceShift, mCoarserGrid.mSource);
+      mCoarserGrid.solveNested();
+      if ( mSparse ) prolongateTiles(mCoarserGrid.mData, false);
+      else           prolongate(mCoarserGrid.mData, false);
       for ( int n = 0 ; n < kNumSmoothIterations ; n++ ) smoothSolution();
     } else {
-      for ( int n = 0 ; n < kNumCoarseIterations ; n++ ) smoothSolution();
-      normalizeSolution();
+      smoothCoarsest();
     }
     
-  } // solve()
+  } // solveNested()
+  
+  // improve the working solution using the coarser grids to find the 
+  // correction needed to cancel out its residual 
+  private void correctionCycle() {
+    
+    if ( mCoarserGrid == null ) {
+      smoothCoarsest();
+      return;
+    }
+    
+    for ( int n = 0 ; n < kNumCycleSmoothIterations ; n++ ) smoothSolution();
+    
+    mCoarserGrid.useCorrection(true);
+    if ( mSparse ) {
+      tileResidual(mCoarserGrid.mRhs);
+    } else {
+      if ( mResidual == null ) mResidual = new float[mYSize*mXSize];
+      relativeResidual(mResidual);
+      restrict(mResidual, 0.0f, mCoarserGrid.mRhs);
+    }
+    Arrays.fill(mCoarserGrid.mPhi, 0.0f);
+    for ( int n = 0 ; n < kCycleIndex ; n++ ) mCoarserGrid.correctionCycle();
+    if ( mSparse ) prolongateTiles(mCoarserGrid.mPhi, true);
+    else           prolongate(mCoarserGrid.mPhi, true);
+    mCoarserGrid.useCorrection(false);
+    
+    for ( int n = 0 ; n < kNumCycleSmoothIterations ; n++ ) smoothSolution();
+    
+  } // correctionCycle()
+  
+  // measure how far the solution is from the answer (see relativeResidual())
+  private float topResidual() {
+    
+    return ( mSparse ? tileResidual(null) : relativeResidual(null) );
+    
+  } // topResidual()
+  
+  // smoothing for the coarsest grid, which has no grid below to help
+  private void smoothCoarsest() {
+    
+    assert( mCoarserGrid == null );
+    
+    for ( int n = 0 ; n < kNumCoarseIterations ; n++ ) smoothSolution();
+    normalizeSolution();
+    
+  } // smoothCoarsest()
+  
+  // switch the smoother between the normal arrays and the correction arrays
+  private void useCorrection(boolean correction) {
+    
+    if ( correction ) {
+      if ( mCorrection == null ) {
+        mCorrection = new float[mYSize*mXSize];
+        mCorrectionSource = new float[mYSize*mXSize];
+      }
+      mPhi = mCorrection;
+      mRhs = mCorrectionSource;
+      mInFlow = null;
+      mRhsShift = 0.0f;
+    } else {
+      mPhi = mData;
+      mRhs = mSource;
+      mInFlow = mInFlowTerms;
+      mRhsShift = mSourceShift;
+    }
+    
+  } // useCorrection()
 
-  // fine-to-coarse interpolation (source data)
-  private void restrict() {
+  // record which sides of each cell have walls
+  private void buildOpenSides() {
+    
+    final float baseWalls[][][] = mOwner.walls();
+    final int allOpen = (1<<Env.NORTH) | (1<<Env.SOUTH) 
+                      | (1<<Env.EAST) | (1<<Env.WEST);
+    
+    for ( int ky = 0 ; ky < mBaseYSize ; ky++ ) {
+      for ( int kx = 0 ; kx < mBaseXSize ; kx++ ) {
+        final float walls[] = baseWalls[ky][kx];
+        
+        final int iy0 = ( ky << mRefineLevel ),
+                  iy1 = iy0 + mRefineFactor-1,
+                  ix0 = ( kx << mRefineLevel ),
+                  ix1 = ix0 + mRefineFactor-1;
+        
+        for ( int iy = iy0 ; iy <= iy1 ; iy++ ) {
+          for ( int ix = ix0 ; ix <= ix1 ; ix++ ) {
+            int open = allOpen;
+            if ( iy==iy0 && walls[Env.NORTH] != Flow.OPEN ) {
+              open &= ~(1<<Env.NORTH);
+            }
+            if ( iy==iy1 && walls[Env.SOUTH] != Flow.OPEN ) {
+              open &= ~(1<<Env.SOUTH);
+            }
+            if ( ix==ix1 && walls[Env.EAST] != Flow.OPEN ) {
+              open &= ~(1<<Env.EAST);
+            }
+            if ( ix==ix0 && walls[Env.WEST] != Flow.OPEN ) {
+              open &= ~(1<<Env.WEST);
+            }
+            mOpenSides[ix + iy*mXSize] = (byte)open;
+          }
+        }
+      }
+    }
+    
+    mOpenSidesReady = true;
+    
+  } // buildOpenSides()
+
+  // update the in-flow contribution for cells on the edges of the blocks
+  // (interior cells have no walls, so their contributions stay at zero)
+  private void updateInFlowTerms() {
+    
+    final float baseWalls[][][] = mOwner.walls();
+    final float scale = 0.25f/mRefineFactor;
+    final int n = mRefineFactor;
+    
+    for ( int ky = 0 ; ky < mBaseYSize ; ky++ ) {
+      for ( int kx = 0 ; kx < mBaseXSize ; kx++ ) {
+        final float walls[] = baseWalls[ky][kx];
+        
+        final float north = ( walls[Env.NORTH] != Flow.OPEN ) 
+                            ? scale*walls[Env.NORTH] : 0.0f,
+                    south = ( walls[Env.SOUTH] != Flow.OPEN ) 
+                            ? scale*walls[Env.SOUTH] : 0.0f,
+                    east  = ( walls[Env.EAST] != Flow.OPEN ) 
+                            ? scale*walls[Env.EAST] : 0.0f,
+                    west  = ( walls[Env.WEST] != Flow.OPEN ) 
+                            ? scale*walls[Env.WEST] : 0.0f;
+        
+        final int iy0 = ky*n,
+                  ix0 = kx*n,
+                  k00 = ix0 + iy0*mXSize,
+                  kN1 = k00 + (n-1)*mXSize;
+        
+        if ( n == 1 ) {
+          mInFlowTerms[k00] = north + south + east + west;
+          continue;
+        }
+        
+        for ( int i = 1 ; i < n-1 ; i++ ) {
+          mInFlowTerms[k00 + i] = north;
+          mInFlowTerms[kN1 + i] = south;
+          mInFlowTerms[k00 + i*mXSize] = west;
+          mInFlowTerms[k00 + i*mXSize + n-1] = east;
+        }
+        mInFlowTerms[k00]       = north + west;
+        mInFlowTerms[k00 + n-1] = north + east;
+        mInFlowTerms[kN1]       = south + west;
+        mInFlowTerms[kN1 + n-1] = south + east;
+      }
+    }
+    
+  } // updateInFlowTerms()
+  
+  // fine-to-coarse interpolation (source data, less a constant shift)
+  private void restrict(float fineSource[], float shift, 
+                        float coarseSource[]) {
     
     assert( mCoarserGrid != null );
     
-    float coarseSource[][] = mCoarserGrid.source();
+    final int coarseXSize = mCoarserGrid.xSize();
 
     for ( int iy = 0, ky = 0 ; iy < mYSize ; iy+=2, ky++ ) {
+      final int i0 = iy*mXSize,
+                i1 = i0 + mXSize,
+                k0 = ky*coarseXSize;
       for ( int ix = 0, kx = 0 ; ix < mXSize ; ix+=2, kx++ ) {
-        coarseSource[ky][kx] 
-                    = 0.25f*( mSource[iy][ix] + mSource[iy][ix+1] 
-                            + mSource[iy+1][ix] + mSource[iy+1][ix+1] );
+        coarseSource[k0+kx] = 0.25f*( (fineSource[i0+ix] - shift)
+                                    + (fineSource[i0+ix+1] - shift)
+                                    + (fineSource[i1+ix] - shift)
+                                    + (fineSource[i1+ix+1] - shift) );
       }
     }
         
   } // restrict()
   
+  // fine-to-coarse interpolation for a sparse grid (like restrict(), with 
+  // the source data and shift from the top grid, but going block by block
+  // since the flow keeps its source terms that way)
+  private void restrictTiles(float coarseSource[]) {
+    
+    assert( mSparse );
+    
+    final SourceAccumulator sources = mOwner.sources();
+    final float shift = mSourceShift;
+    final int n = mRefineFactor,
+              stride = sources.blockStride(),
+              cnx = mCoarserGrid.mXSize;
+    
+    for ( int ky = 0 ; ky < mBaseYSize ; ky++ ) {
+      for ( int kx = 0 ; kx < mBaseXSize ; kx++ ) {
+        final float source[] = sources.block(kx, ky);
+        final int k00 = sources.blockOffset(kx, ky),
+                  c00 = kx*(n/2) + ky*(n/2)*cnx;
+        for ( int jy = 0 ; jy < n ; jy += 2 ) {
+          final int i0 = k00 + jy*stride,
+                    i1 = i0 + stride,
+                    c0 = c00 + (jy/2)*cnx;
+          for ( int jx = 0 ; jx < n ; jx += 2 ) {
+            coarseSource[c0 + jx/2] = 0.25f*( (source[i0+jx] - shift)
+                                            + (source[i0+jx+1] - shift)
+                                            + (source[i1+jx] - shift)
+                                            + (source[i1+jx+1] - shift) );
+          }
+        }
+      }
+    }
+    
+  } // restrictTiles()
+  
   // coarse-to-fine interpolation (solution data)
-  private void prolongate() {
+  // (the coarse values either replace the working solution or are added to it)
+  private void prolongate(float coarseData[], boolean add) {
     
     assert( mCoarserGrid != null );
     
-    float coarseData[][] = mCoarserGrid.data();
+    final float data[] = mPhi;
+    final int coarseXSize = mCoarserGrid.xSize();
     
     for ( int iy = 0, ky = 0 ; iy < mYSize ; iy+=2, ky++ ) {
+      final int i0 = iy*mXSize,
+                i1 = i0 + mXSize,
+                k0 = ky*coarseXSize;
       for ( int ix = 0, kx = 0 ; ix < mXSize ; ix+=2, kx++ ) {
-        mData[iy][ix] = mData[iy][ix+1] 
-          = mData[iy+1][ix] = mData[iy+1][ix+1] = coarseData[ky][kx];
+        final float val = coarseData[k0+kx];
+        if ( add ) {
+          data[i0+ix] += val;
+          data[i0+ix+1] += val;
+          data[i1+ix] += val;
+          data[i1+ix+1] += val;
+        } else {
+          data[i0+ix] = data[i0+ix+1] = data[i1+ix] = data[i1+ix+1] = val;
+        }
       }
     }
     
   } // prolongate()
   
   // improve the current solution
+  // (red-black sweeps: the cells of one colour only read cells of the other
+  //  colour, so the rows can be shared between threads without changing the
+  //  result)
   public void smoothSolution() {
     
-    if ( mRefineLevel == 0 ) smoothSolutionBase();
-    else                     smoothSolutionRefined();
+    if ( mSparse ) {
+      smoothTiles();
+      return;
+    }
+    
+    final int numRows = ( mRefineLevel == 0 ) ? mYSize : mBaseYSize;
+    final int numBands = numSmoothingBands(numRows);
+    
+    for ( int stagger = 0 ; stagger <= 1 ; stagger++ ) {
+      if ( numBands > 1 ) {
+        mSmoothTask.mStagger = stagger;
+        mSmoothTask.mNumRows = numRows;
+        mSmoothTask.mNumBands = numBands;
+        Env.taskPool().run(mSmoothTask, numBands);
+      } else {
+        smoothRows(stagger, 0, numRows);
+      }
+    }
     
   } // smoothSolution()
   
+  // how many bands of rows to divide the smoothing into (1 => no threading)
+  private int numSmoothingBands(int numRows) {
+    
+    if ( !kUseParallelSmoothing ) return 1;
+    if ( mXSize*mYSize < kMinParallelCells ) return 1;
+    return Math.max(1, Math.min(numRows, Env.taskPool().numThreads()));
+    
+  } // numSmoothingBands()
+  
+  // update cells of one colour for a range of rows 
+  // (grid rows on the base grid, rows of blocks on a refined grid)
+  private void smoothRows(int stagger, int row0, int row1) {
+    
+    if ( mRefineLevel == 0 ) smoothSolutionBase(stagger, row0, row1);
+    else                     smoothSolutionRefined(stagger, row0, row1);
+    
+  } // smoothRows()
+  
   // improve the current solution (for an unrefined grid)
-  private void smoothSolutionBase() {
+  private void smoothSolutionBase(int stagger, int ky0, int ky1) {
 
     assert( mRefineLevel == 0 );
     
     final float delta = 1.0f;
     final float sourceFactor = delta*delta/4.0f;
     
-    final float baseWalls[][][] = mOwner.walls();
-    
-    for ( int stagger = 0 ; stagger <= 1 ; stagger++ ) {
-      for ( int ky = 0 ; ky < mYSize ; ky++ ) {
-
-        final int kx0 = ((stagger+ky) % 2);
-        for ( int kx = kx0 ; kx < mXSize ; kx+=2 ) {
-          final float walls[] = baseWalls[ky][kx];
-          
-          final float phi0 = mData[ky][kx];
-          final float phiN = ( walls[Env.NORTH] == Flow.OPEN ) 
-                             ? mData[ky-1][kx]
-                             : ( phi0 - walls[Env.NORTH] );
-          final float phiS = ( walls[Env.SOUTH] == Flow.OPEN ) 
-                             ? mData[ky+1][kx]
-                             : ( phi0 - walls[Env.SOUTH] );
-          final float phiE = ( walls[Env.EAST] == Flow.OPEN ) 
-                             ? mData[ky][kx+1]
-                             : ( phi0 - walls[Env.EAST] );
-          final float phiW = ( walls[Env.WEST] == Flow.OPEN ) 
-                             ? mData[ky][kx-1]
-                             : ( phi0 - walls[Env.WEST] );
- 
-          mData[ky][kx] = 0.25f*( phiN + phiS + phiE + phiW )
-                          - sourceFactor*mSource[ky][kx];
-        }
-      }
+    for ( int ky = ky0 ; ky < ky1 ; ky++ ) {
+      smoothRow(stagger, ky, 0, mXSize, sourceFactor);
     }
     
   } // smoothSolutionBase()
   
   // improve the current solution (for a refined grid)
-  private void smoothSolutionRefined() {
+  // (neighbouring blocks that need solving are done as one run of cells)
+  // (when smoothing a correction every block is included, otherwise the 
+  //  inactive blocks drift as corrections are piled onto them unchecked)
+  private void smoothSolutionRefined(int stagger, int ky0, int ky1) {
 
     assert( mRefineLevel > 0 );
     
     final float delta = 1.0f/mRefineFactor;
     final float sourceFactor = delta*delta/4.0f;
     
-    final float baseWalls[][][] = mOwner.walls();
-    final int desiredSolutionLevel[][] = mOwner.desiredSolutionLevel();
+    final boolean allBlocks = ( !kUseDesiredSolutionLevels || 
+                                mPhi == mCorrection );
     
-    for ( int ky = 0 ; ky < mBaseYSize ; ky++ ) {
-      for ( int kx = 0 ; kx < mBaseXSize ; kx++ ) {
+    for ( int ky = ky0 ; ky < ky1 ; ky++ ) {
+      int kx0 = 0;
+      while ( kx0 < mBaseXSize ) {
         
-        if ( kUseDesiredSolutionLevels &&
-             desiredSolutionLevel[ky][kx] < mRefineLevel ) continue;
-
-        final float walls[] = baseWalls[ky][kx];
+        if ( !allBlocks && !smoothedBlock(kx0, ky) ) {
+          kx0++;
+          continue;
+        }
         
+        int kx1 = kx0 + 1;
+        while ( kx1 < mBaseXSize && 
+                ( allBlocks || smoothedBlock(kx1, ky) ) ) kx1++;
+
         final int iy0 = ( ky << mRefineLevel ),
                   iy1 = iy0 + mRefineFactor-1,
-                  ix0 = ( kx << mRefineLevel ),
-                  ix1 = ix0 + mRefineFactor-1;
+                  ix0 = ( kx0 << mRefineLevel ),
+                  ix1 = ( kx1 << mRefineLevel );
         
-        for ( int stagger = 0 ; stagger <= 1 ; stagger++ ) {
-          for ( int iy = iy0 ; iy <= iy1 ; iy++ ) {
-            for ( int ix = ix0 + ((stagger+iy)%2) ; ix <= ix1 ; ix+=2 ) {
-              final float phi0 = mData[iy][ix];
-              final float phiN = ( iy==iy0 && walls[Env.NORTH] != Flow.OPEN ) 
-                                 ? ( phi0 - delta*walls[Env.NORTH] )
-                                 : mData[iy-1][ix];
-              final float phiS = ( iy==iy1 && walls[Env.SOUTH] != Flow.OPEN ) 
-                                 ? ( phi0 - delta*walls[Env.SOUTH] )
-                                 : mData[iy+1][ix];
-              final float phiE = ( ix==ix1 && walls[Env.EAST] != Flow.OPEN ) 
-                                 ? ( phi0 - delta*walls[Env.EAST] )
-                                 : mData[iy][ix+1];
-              final float phiW = ( ix==ix0 && walls[Env.WEST] != Flow.OPEN ) 
-                                 ? ( phi0 - delta*walls[Env.WEST] )
-                                 : mData[iy][ix-1];
-              mData[iy][ix] = 0.25f*( phiN + phiS + phiE + phiW )
-                              - sourceFactor*mSource[iy][ix];
-            }
-          }
+        for ( int iy = iy0 ; iy <= iy1 ; iy++ ) {
+          smoothRow(stagger, iy, ix0, ix1, sourceFactor);
         }
-          
-      } // for kx
+        
+        kx0 = kx1;
+      } // while kx0
     } // for ky
     
   } // smoothSolutionRefined()
 
+  // whether a block is smoothed at this level (when not smoothing a 
+  // correction): it must be solved at this level, and on the top grid it 
+  // must also have changed (see Flow.unchangedBlocks())
+  private boolean smoothedBlock(int kx, int ky) {
+    
+    if ( kUseDesiredSolutionLevels && 
+         mOwner.solveLevel()[ky][kx] < mRefineLevel ) return false;
+    
+    final boolean unchanged[][] = ( mRefineLevel == mOwner.refineLevel() )
+                                  ? mOwner.unchangedBlocks() : null;
+    return ( unchanged == null || !unchanged[ky][kx] );
+    
+  } // smoothedBlock()
+  
+  // update cells of one colour in a section of a row (ix0 <= x < ix1)
+  private void smoothRow(int stagger, int iy, int ix0, int ix1, 
+                         float sourceFactor) {
+    
+    final int row = iy*mXSize;
+    final int offset = (stagger+iy+ix0) % 2;
+    smoothCells(row + ix0 + offset, row + ix1, sourceFactor);
+    
+  } // smoothRow()
+
+  // update every second cell in a section of a row (k0 <= k < k1)
+  // (a wall side reads the cell's own value, the in-flow term does the rest)
+  private void smoothCells(int k0, int k1, float sourceFactor) {
+    
+    final int nx = mXSize;
+    final float data[] = mPhi,
+                source[] = mRhs,
+                inFlow[] = mInFlow;
+    final float shift = mRhsShift;
+    for ( int k = k0 ; k < k1 ; k += 2 ) {
+      final int open = mOpenSides[k];
+      final int kN = k - nx*((open >> Env.NORTH) & 1),
+                kS = k + nx*((open >> Env.SOUTH) & 1),
+                kE = k + ((open >> Env.EAST) & 1),
+                kW = k - ((open >> Env.WEST) & 1);
+      final float in = ( inFlow != null ) ? inFlow[k] : 0.0f;
+      data[k] = 0.25f*( data[kN] + data[kS] + data[kE] + data[kW] )
+                - in - sourceFactor*(source[k] - shift);
+    }
+    
+  } // smoothCells()
+
   // adjust the solution so its mean is close to zero
   // (adding a constant does not affect the gradient)
   private void normalizeSolution() {
     
+    final float data[] = mPhi;
+    
     float sum = 0.0f;
-    for ( int ky = 0 ; ky < mYSize ; ky++ ) {
-      for ( int kx = 0 ; kx < mXSize ; kx++ ) {
-        sum += mData[ky][kx]; 
+    for ( int k = 0 ; k < data.length ; k++ ) sum += data[k]; 
+    
+    final float mean = sum/data.length;
+    for ( int k = 0 ; k < data.length ; k++ ) data[k] -= mean; 
+    
+  } // normalizeSolution()
+  
+  // measure how far the working solution is from the answer, as the rms 
+  // change that a smoothing step would make relative to the rms size of the
+  // source and in-flow terms (only cells in blocks being smoothed at this 
+  // level are included, or every cell if this is a correction)
+  // (if an array is supplied it receives the residual, in the same units as 
+  //  the source terms, with zero outside the blocks being solved)
+  private float relativeResidual(float residual[]) {
+    
+    final float delta = 1.0f/mRefineFactor;
+    final float sourceFactor = delta*delta/4.0f;
+
+    final boolean allBlocks = ( !kUseDesiredSolutionLevels || 
+                                mPhi == mCorrection );
+    final float data[] = mPhi,
+                source[] = mRhs,
+                inFlow[] = mInFlow;
+    final float shift = mRhsShift;
+    final int nx = mXSize;
+
+    if ( residual != null ) Arrays.fill(residual, 0.0f);
+    
+    double sumChangeSq = 0.0,
+           sumTermsSq  = 0.0;
+    
+    for ( int ky = 0 ; ky < mBaseYSize ; ky++ ) {
+      for ( int kx = 0 ; kx < mBaseXSize ; kx++ ) {
+        
+        if ( mRefineLevel > 0 && !allBlocks &&
+             !smoothedBlock(kx, ky) ) continue;
+        
+        final int iy0 = ( ky << mRefineLevel ),
+                  ix0 = ( kx << mRefineLevel );
+        for ( int iy = iy0 ; iy < iy0 + mRefineFactor ; iy++ ) {
+          final int k0 = ix0 + iy*nx;
+          for ( int k = k0 ; k < k0 + mRefineFactor ; k++ ) {
+            final int open = mOpenSides[k];
+            final int kN = k - nx*((open >> Env.NORTH) & 1),
+                      kS = k + nx*((open >> Env.SOUTH) & 1),
+                      kE = k + ((open >> Env.EAST) & 1),
+                      kW = k - ((open >> Env.WEST) & 1);
+            final float in = ( inFlow != null ) ? inFlow[k] : 0.0f;
+            final float terms = in + sourceFactor*(source[k] - shift);
+            final float change = 0.25f*( data[kN] + data[kS] 
+                                       + data[kE] + data[kW] ) 
+                                 - terms - data[k];
+            sumChangeSq += change*change;
+            sumTermsSq += terms*terms;
+            if ( residual != null ) residual[k] = -change/sourceFactor;
+          }
+        }
+        
+      } // for kx
+    } // for ky
+    
+    return (float)Math.sqrt(sumChangeSq/Math.max(sumTermsSq, 1.0e-30));
+    
+  } // relativeResidual()
+  
+  // make sure that the blocks being solved have tiles (and the others not),
+  // and list the blocks that need smoothing (for a sparse grid)
+  // (a new tile starts from the coarser grid's solution, and a tile that is
+  //  no longer wanted leaves its solution there, so the coarser grid always
+  //  holds the values for blocks without tiles)
+  private void updateTiles() {
+    
+    assert( mSparse );
+    
+    final int n = mRefineFactor;
+    mNumSmoothedBlocks = 0;
+    
+    for ( int ky = 0 ; ky < mBaseYSize ; ky++ ) {
+      for ( int kx = 0 ; kx < mBaseXSize ; kx++ ) {
+        final int b = kx + ky*mBaseXSize;
+        final boolean wanted = ( !kUseDesiredSolutionLevels ||
+                                 mOwner.solveLevel()[ky][kx] >= mRefineLevel );
+        
+        if ( wanted && mTiles[b] == null ) {
+          final int last = mSpareTiles.size() - 1;
+          mTiles[b] = ( last >= 0 ) ? mSpareTiles.remove(last) 
+                                    : new float[(n+2)*(n+2)];
+          copyTile(b, false);
+        } else if ( !wanted && mTiles[b] != null ) {
+          copyTile(b, true);
+          mSpareTiles.add(mTiles[b]);
+          mTiles[b] = null;
+        }
+        
+        if ( wanted && smoothedBlock(kx, ky) ) {
+          mSmoothedBlocks[mNumSmoothedBlocks++] = b;
+        }
       }
     }
     
-    final float mean = sum/(mYSize*mXSize);
-    for ( int ky = 0 ; ky < mYSize ; ky++ ) {
-      for ( int kx = 0 ; kx < mXSize ; kx++ ) {
-        mData[ky][kx] -= mean; 
+  } // updateTiles()
+  
+  // copy a block's solution from the coarser grid into its tile, or (the 
+  // reverse) average the tile's solution down into the coarser grid
+  private void copyTile(int block, boolean toCoarser) {
+    
+    final float tile[] = mTiles[block],
+                coarse[] = mCoarserGrid.mData;
+    final int n = mRefineFactor,
+              stride = n + 2,
+              cnx = mCoarserGrid.mXSize,
+              c00 = (block % mBaseXSize)*(n/2) + (block / mBaseXSize)*(n/2)*cnx;
+    
+    for ( int jy = 0 ; jy < n ; jy += 2 ) {
+      for ( int jx = 0 ; jx < n ; jx += 2 ) {
+        final int k = (jx + 1) + (jy + 1)*stride,
+                  c = c00 + jx/2 + (jy/2)*cnx;
+        if ( toCoarser ) {
+          coarse[c] = 0.25f*( tile[k] + tile[k+1] 
+                            + tile[k+stride] + tile[k+stride+1] );
+        } else {
+          tile[k] = tile[k+1] = tile[k+stride] = tile[k+stride+1] = coarse[c];
+        }
       }
     }
     
-  } // normalizeSolution()
+  } // copyTile()
+  
+  // coarse-to-fine interpolation for a sparse grid (like prolongate())
+  // (when adding a correction, blocks without tiles take it on the coarser
+  //  grid's own solution instead, since that is where their values are)
+  private void prolongateTiles(float coarseData[], boolean add) {
+    
+    assert( mSparse );
+    
+    final float coarse[] = mCoarserGrid.mData;
+    final int n = mRefineFactor,
+              stride = n + 2,
+              cnx = mCoarserGrid.mXSize;
+    
+    for ( int b = 0 ; b < mTiles.length ; b++ ) {
+      final float tile[] = mTiles[b];
+      final int c00 = (b % mBaseXSize)*(n/2) + (b / mBaseXSize)*(n/2)*cnx;
+      for ( int jy = 0 ; jy < n ; jy += 2 ) {
+        for ( int jx = 0 ; jx < n ; jx += 2 ) {
+          final int c = c00 + jx/2 + (jy/2)*cnx;
+          final float val = coarseData[c];
+          if ( tile == null ) {
+            if ( add ) coarse[c] += val;
+            continue;
+          }
+          final int k = (jx + 1) + (jy + 1)*stride;
+          if ( add ) {
+            tile[k] += val;
+            tile[k+1] += val;
+            tile[k+stride] += val;
+            tile[k+stride+1] += val;
+          } else {
+            tile[k] = tile[k+1] = tile[k+stride] = tile[k+stride+1] = val;
+          }
+        }
+      }
+    }
+    
+  } // prolongateTiles()
+  
+  // improve the current solution (for a sparse grid)
+  // (the same red-black sweeps as smoothSolution(), but with the tiles' 
+  //  borders brought up to date before each colour)
+  private void smoothTiles() {
+    
+    assert( mSparse );
+    
+    final int numCells = mNumSmoothedBlocks*mRefineFactor*mRefineFactor;
+    final int numBands = ( kUseParallelSmoothing && 
+                           numCells >= kMinParallelCells )
+                       ? Math.max(1, Math.min(mNumSmoothedBlocks, 
+                                              Env.taskPool().numThreads()))
+                       : 1;
+    
+    for ( int stagger = 0 ; stagger <= 1 ; stagger++ ) {
+      if ( numBands > 1 ) {
+        mTileTask.mNumBands = numBands;
+        mTileTask.mBorders = true;
+        Env.taskPool().run(mTileTask, numBands);
+        mTileTask.mStagger = stagger;
+        mTileTask.mBorders = false;
+        Env.taskPool().run(mTileTask, numBands);
+      } else {
+        for ( int i = 0 ; i < mNumSmoothedBlocks ; i++ ) {
+          fillBorder(mSmoothedBlocks[i]);
+        }
+        for ( int i = 0 ; i < mNumSmoothedBlocks ; i++ ) {
+          smoothTile(stagger, mSmoothedBlocks[i]);
+        }
+      }
+    }
+    
+  } // smoothTiles()
+  
+  // copy the values around a block into the border of its tile
+  // (from the neighbouring tile, or from the coarser grid if there is none,
+  //  except that a wall side repeats the block's own edge values)
+  private void fillBorder(int block) {
+    
+    final float tile[] = mTiles[block];
+    final int kx = block % mBaseXSize,
+              ky = block / mBaseXSize;
+    final float walls[] = mOwner.walls()[ky][kx];
+    final int n = mRefineFactor,
+              stride = n + 2,
+              last = (n+1)*stride;
+    
+    final float coarse[] = mCoarserGrid.mData;
+    final int cnx = mCoarserGrid.mXSize,
+              cx0 = kx*(n/2),
+              cy0 = ky*(n/2);
+    
+    if ( walls[Env.NORTH] != Flow.OPEN || ky == 0 ) {
+      System.arraycopy(tile, stride+1, tile, 1, n);
+    } else {
+      final float other[] = mTiles[block - mBaseXSize];
+      if ( other != null ) {
+        System.arraycopy(other, n*stride+1, tile, 1, n);
+      } else {
+        final int c0 = cx0 + (cy0-1)*cnx;
+        for ( int j = 0 ; j < n ; j++ ) tile[1+j] = coarse[c0 + j/2];
+      }
+    }
+    
+    if ( walls[Env.SOUTH] != Flow.OPEN || ky == mBaseYSize-1 ) {
+      System.arraycopy(tile, last-stride+1, tile, last+1, n);
+    } else {
+      final float other[] = mTiles[block + mBaseXSize];
+      if ( other != null ) {
+        System.arraycopy(other, stride+1, tile, last+1, n);
+      } else {
+        final int c0 = cx0 + (cy0+n/2)*cnx;
+        for ( int j = 0 ; j < n ; j++ ) tile[last+1+j] = coarse[c0 + j/2];
+      }
+    }
+    
+    if ( walls[Env.WEST] != Flow.OPEN || kx == 0 ) {
+      for ( int k = stride ; k < last ; k += stride ) tile[k] = tile[k+1];
+    } else {
+      final float other[] = mTiles[block - 1];
+      if ( other != null ) {
+        for ( int k = stride ; k < last ; k += stride ) tile[k] = other[k+n];
+      } else {
+        final int c0 = cx0-1 + cy0*cnx;
+        for ( int j = 0 ; j < n ; j++ ) {
+          tile[(j+1)*stride] = coarse[c0 + (j/2)*cnx];
+        }
+      }
+    }
+    
+    if ( walls[Env.EAST] != Flow.OPEN || kx == mBaseXSize-1 ) {
+      for ( int k = stride+n+1 ; k < last ; k += stride ) tile[k] = tile[k-1];
+    } else {
+      final float other[] = mTiles[block + 1];
+      if ( other != null ) {
+        for ( int k = stride+n+1 ; k < last ; k += stride ) {
+          tile[k] = other[k-n];
+        }
+      } else {
+        final int c0 = cx0+n/2 + cy0*cnx;
+        for ( int j = 0 ; j < n ; j++ ) {
+          tile[(j+2)*stride-1] = coarse[c0 + (j/2)*cnx];
+        }
+      }
+    }
+    
+  } // fillBorder()
+  
+  // in-flow contribution for the cells along one edge of a block
+  // (see updateInFlowTerms())
+  private float edgeInFlow(float walls[], int direc) {
+    
+    final float scale = 0.25f/mRefineFactor;
+    return ( walls[direc] != Flow.OPEN ) ? scale*walls[direc] : 0.0f;
+    
+  } // edgeInFlow()
+  
+  // update cells of one colour in one tile (see smoothCells())
+  // (the border must be up to date, see fillBorder())
+  private void smoothTile(int stagger, int block) {
+    
+    final SourceAccumulator sources = mOwner.sources();
+    final int kx = block % mBaseXSize,
+              ky = block / mBaseXSize;
+    final float tile[] = mTiles[block],
+                source[] = sources.block(kx, ky);
+    final float shift = mSourceShift;
+    final int n = mRefineFactor,
+              stride = n + 2,
+              sourceStride = sources.blockStride(),
+              source00 = sources.blockOffset(kx, ky) - 1,
+              iy0 = ( ky << mRefineLevel );
+    final float delta = 1.0f/n;
+    final float sourceFactor = delta*delta/4.0f;
+    
+    final float walls[] = mOwner.walls()[ky][kx];
+    final float north = edgeInFlow(walls, Env.NORTH),
+                south = edgeInFlow(walls, Env.SOUTH),
+                east  = edgeInFlow(walls, Env.EAST),
+                west  = edgeInFlow(walls, Env.WEST);
+    
+    for ( int jy = 1 ; jy <= n ; jy++ ) {
+      final int iy = iy0 + jy-1,
+                row = jy*stride,
+                sourceRow = source00 + (jy-1)*sourceStride;
+      final float rowInFlow = ( jy == 1 ) ? north 
+                            : ( jy == n ) ? south : 0.0f;
+      
+      // blocks have an even width, so the cells of this colour include 
+      // either the west end of the row or the east end, but not both
+      final boolean westEnd = ( ((stagger+iy) & 1) == 0 );
+      for ( int jx = (westEnd ? 3 : 2) ; jx < n ; jx += 2 ) {
+        final int k = row + jx;
+        tile[k] = 0.25f*( tile[k-stride] + tile[k+stride] 
+                        + tile[k+1] + tile[k-1] )
+                  - rowInFlow - sourceFactor*(source[sourceRow + jx] - shift);
+      }
+      
+      final int jx = ( westEnd ? 1 : n ),
+                k = row + jx;
+      final float terms = rowInFlow + ( westEnd ? west : east );
+      tile[k] = 0.25f*( tile[k-stride] + tile[k+stride] 
+                      + tile[k+1] + tile[k-1] )
+                - terms - sourceFactor*(source[sourceRow + jx] - shift);
+    }
+    
+  } // smoothTile()
+  
+  // measure the residual for a sparse grid (see relativeResidual())
+  // (if an array is supplied the residual is restricted into it, ready to 
+  //  be the source for a correction on the coarser grid)
+  private float tileResidual(float coarseResidual[]) {
+    
+    assert( mSparse );
+    
+    final float delta = 1.0f/mRefineFactor;
+    final float sourceFactor = delta*delta/4.0f;
+    final SourceAccumulator sources = mOwner.sources();
+    final float shift = mSourceShift;
+    final int n = mRefineFactor,
+              stride = n + 2,
+              sourceStride = sources.blockStride(),
+              cnx = mCoarserGrid.mXSize;
+    
+    if ( coarseResidual != null ) Arrays.fill(coarseResidual, 0.0f);
+    
+    double sumChangeSq = 0.0,
+           sumTermsSq  = 0.0;
+    
+    for ( int i = 0 ; i < mNumSmoothedBlocks ; i++ ) {
+      final int block = mSmoothedBlocks[i];
+      fillBorder(block);
+      
+      final int kx = block % mBaseXSize,
+                ky = block / mBaseXSize,
+                ix0 = ( kx << mRefineLevel ),
+                iy0 = ( ky << mRefineLevel ),
+                source00 = sources.blockOffset(kx, ky) - 1;
+      final float tile[] = mTiles[block],
+                  source[] = sources.block(kx, ky);
+      final float walls[] = mOwner.walls()[ky][kx];
+      final float north = edgeInFlow(walls, Env.NORTH),
+                  south = edgeInFlow(walls, Env.SOUTH),
+                  east  = edgeInFlow(walls, Env.EAST),
+                  west  = edgeInFlow(walls, Env.WEST);
+      
+      for ( int jy = 1 ; jy <= n ; jy++ ) {
+        final int iy = iy0 + jy-1,
+                  sourceRow = source00 + (jy-1)*sourceStride,
+                  coarseRow = (ix0 >> 1) + (iy >> 1)*cnx;
+        final float rowInFlow = ( jy == 1 ) ? north 
+                              : ( jy == n ) ? south : 0.0f;
+        for ( int jx = 1, k = jy*stride+1 ; jx <= n ; jx++, k++ ) {
+          float terms = rowInFlow;
+          if ( jx == 1 ) terms += west;
+          if ( jx == n ) terms += east;
+          terms += sourceFactor*(source[sourceRow + jx] - shift);
+          final float change = 0.25f*( tile[k-stride] + tile[k+stride] 
+                                     + tile[k+1] + tile[k-1] ) 
+                               - terms - tile[k];
+          sumChangeSq += change*change;
+          sumTermsSq += terms*terms;
+          if ( coarseResidual != null ) {
+            coarseResidual[coarseRow + (jx-1)/2] -= 0.25f*change/sourceFactor;
+          }
+        }
+      }
+    }
+    
+    return (float)Math.sqrt(sumChangeSq/Math.max(sumTermsSq, 1.0e-30));
+    
+  } // tileResidual()
   
 } // class FlowGrid
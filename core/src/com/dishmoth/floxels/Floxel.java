@@ -6,7 +6,7 @@
 
 package com.dishmoth.floxels;
 
-// basic particle details
+// basic particle details (constants shared by the particle code)
 public final class Floxel {
 
   // number of different populations
@@ -23,32 +23,15 @@ public final class Floxel {
   public static final int STUN_FACE = 6;
   public static final int SPLAT_FACE = 7;
   
-  // different types of behaviour
-  public enum State { UNUSED, NORMAL, SPLATTED, RECLAIMED, STUNNED };
+  // different types of behaviour (values stored in FloxelStore.mState)
+  public static final byte UNUSED    = 0,
+                           NORMAL    = 1,
+                           SPLATTED  = 2,
+                           RECLAIMED = 3,
+                           STUNNED   = 4;
+  public static final int  NUM_STATES = 5;
   
-  // current mode of behaviour
-  public State mState = State.UNUSED;
-
-  // position (in base grid units)
-  public float mX = 0.0f, 
-               mY = 0.0f;
-  
-  // timer counting down depending on current state (0 if not in use)
-  public short mTimer = 0;
-  
-  // score rating for the floxel's current cluster (0 to maxClusterScore())
-  public byte mCluster = 0;
-
-  // if true then the floxel is on top of another of the same type
-  public boolean mNeedsNudge = false;
-  
-  // which population the floxel belongs to (0 to NUM_TYPES-1)
-  public byte mType = 0;
-
-  // brightness of the floxel (0 to NUM_SHADES-1)
-  public byte mShade = 0;
-  
-  // which face the floxel is showing (0 to NUM_FACES-1)
-  public byte mFace = 0;
+  // no instances (the particles themselves are kept in a FloxelStore)
+  private Floxel() {}
   
 } // class Floxel
@@ -0,0 +1,197 @@
+/*
+ *  FloxelDensity.java
+ *  Copyright (c) 2016 Simon Hern
+ *  Contact: dishmoth@yahoo.co.uk, dishmoth.com, github.com/dishmoth
+ */
+
+package com.dishmoth.floxels;
+
+// statistics about where the floxels of each population are gathered
+// (worked out once per tick from the census counts, see Floxels.density(),
+//  so that any number of consumers can query them cheaply)
+public class FloxelDensity {
+
+  // simple class for returning the position of a peak
+  static public class Peak {
+    public int count = 0, x = -1, y = -1;
+  } // class FloxelDensity.Peak
+
+  // size of the base grid
+  private final int mXSize,
+                    mYSize;
+
+  // number of populations
+  private final int mNumTypes;
+
+  // summed-area table for each population, where entry x + y*(mXSize+1)
+  // is the number of floxels in cells [0,x) by [0,y)
+  private final int mSums[][];
+
+  // the most crowded cell for each population (the first in row order if
+  // there is a tie, or -1 if there are no floxels)
+  private final int mMaxCount[],
+                    mMaxX[],
+                    mMaxY[];
+
+  // weights applied to the cells around a point by weightedPeak(),
+  // indexed (dx+r) + (dy+r)*(2r+1), and the radius they are for
+  private float mWeights[];
+  private int   mWeightsRange;
+  private float mWeightsRadius;
+
+  // constructor
+  public FloxelDensity(int xSize, int ySize, int numTypes) {
+
+    assert( xSize > 0 && ySize > 0 );
+    assert( numTypes > 0 );
+
+    mXSize = xSize;
+    mYSize = ySize;
+    mNumTypes = numTypes;
+
+    mSums = new int[mNumTypes][(mXSize+1)*(mYSize+1)];
+    mMaxCount = new int[mNumTypes];
+    mMaxX = new int[mNumTypes];
+    mMaxY = new int[mNumTypes];
+    for ( int type = 0 ; type < mNumTypes ; type++ ) {
+      mMaxX[type] = mMaxY[type] = -1;
+    }
+
+    mWeights = null;
+    mWeightsRange = 0;
+    mWeightsRadius = -1.0f;
+
+  } // constructor
+
+  // rebuild the statistics from the number of floxels of each population
+  // in each cell, as [type][y][x]
+  public void update(int counts[][][]) {
+
+    assert( counts.length == mNumTypes );
+
+    final int step = mXSize+1;
+    for ( int type = 0 ; type < mNumTypes ; type++ ) {
+      final int sums[] = mSums[type];
+      int max = 0,
+          xMax = -1,
+          yMax = -1;
+      for ( int iy = 0 ; iy < mYSize ; iy++ ) {
+        final int row[] = counts[type][iy];
+        final int k0 = (iy+1)*step;
+        int rowSum = 0;
+        for ( int ix = 0 ; ix < mXSize ; ix++ ) {
+          final int c = row[ix];
+          if ( c > max ) {
+            max = c;
+            xMax = ix;
+            yMax = iy;
+          }
+          rowSum += c;
+          sums[k0 + ix+1] = sums[k0 - step + ix+1] + rowSum;
+        }
+      }
+      mMaxCount[type] = max;
+      mMaxX[type] = xMax;
+      mMaxY[type] = yMax;
+    }
+
+  } // update()
+
+  // total number of floxels in a population
+  public int total(int type) {
+
+    return mSums[type][mXSize + mYSize*(mXSize+1)];
+
+  } // total()
+
+  // number of floxels in a rectangle of cells (corners inclusive, and
+  // clipped to the grid)
+  public int count(int type, int x0, int y0, int x1, int y1) {
+
+    x0 = Math.max(x0, 0);
+    y0 = Math.max(y0, 0);
+    x1 = Math.min(x1, mXSize-1);
+    y1 = Math.min(y1, mYSize-1);
+    if ( x0 > x1 || y0 > y1 ) return 0;
+
+    final int sums[] = mSums[type];
+    final int step = mXSize+1;
+    return ( sums[(x1+1) + (y1+1)*step] - sums[x0 + (y1+1)*step]
+           - sums[(x1+1) + y0*step]     + sums[x0 + y0*step] );
+
+  } // count()
+
+  // number of floxels in the most crowded cell of a population (or zero)
+  public int maxCount(int type) { return mMaxCount[type]; }
+
+  // position of the most crowded cell of a population (or -1)
+  public int maxX(int type) { return mMaxX[type]; }
+  public int maxY(int type) { return mMaxY[type]; }
+
+  // find the cell with the largest number of floxels once the counts are
+  // scaled down with distance from a cell, to zero at a certain radius
+  // (each scaled count is rounded to the nearest integer, and the first
+  //  cell in row order wins a tie; the count is zero if there are no
+  //  floxels within the radius)
+  // (only the cells within the radius are visited, and the weights are
+  //  kept between calls with the same radius)
+  public void weightedPeak(int type, int cx, int cy, float radius,
+                           Peak peak) {
+
+    assert( cx >= 0 && cx < mXSize && cy >= 0 && cy < mYSize );
+    assert( radius > 0.0f );
+
+    if ( radius != mWeightsRadius ) makeWeights(radius);
+
+    final int r = mWeightsRange,
+              size = 2*r+1;
+    final int x0 = Math.max(cx-r, 0),
+              y0 = Math.max(cy-r, 0),
+              x1 = Math.min(cx+r, mXSize-1),
+              y1 = Math.min(cy+r, mYSize-1);
+
+    peak.count = 0;
+    peak.x = peak.y = -1;
+    if ( count(type, x0, y0, x1, y1) == 0 ) return;
+
+    // (the counts are recovered from the summed-area table)
+    final int sums[] = mSums[type];
+    final int step = mXSize+1;
+    for ( int iy = y0 ; iy <= y1 ; iy++ ) {
+      final int k0 = iy*step,
+                j0 = (iy - cy + r)*size - cx + r;
+      for ( int ix = x0 ; ix <= x1 ; ix++ ) {
+        final int n = sums[k0+step + ix+1] - sums[k0+step + ix]
+                    - sums[k0 + ix+1]      + sums[k0 + ix];
+        if ( n == 0 ) continue;
+        final int c = Math.round( n * mWeights[j0 + ix] );
+        if ( c > peak.count ) {
+          peak.count = c;
+          peak.x = ix;
+          peak.y = iy;
+        }
+      }
+    }
+
+  } // weightedPeak()
+
+  // work out the weights used by weightedPeak()
+  private void makeWeights(float radius) {
+
+    final int r = (int)Math.ceil(radius),
+              size = 2*r+1;
+    mWeights = new float[size*size];
+    for ( int dy = -r ; dy <= +r ; dy++ ) {
+      for ( int dx = -r ; dx <= +r ; dx++ ) {
+        final float fx = dx,
+                    fy = dy;
+        final float d = (float)Math.sqrt(fx*fx + fy*fy) / radius;
+        mWeights[(dx+r) + (dy+r)*size] = Math.max(0.0f, 1-d);
+      }
+    }
+    mWeightsRange = r;
+    mWeightsRadius = radius;
+
+  } // makeWeights()
+
+} // class FloxelDensity
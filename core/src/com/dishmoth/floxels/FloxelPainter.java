@@ -279,20 +279,29 @@ public class FloxelPainter {
   // replace the texture (following game pause/resume)
   public void resetTexture(Texture texture) { mTexture = texture; }
   
-  // display a floxel
-  void draw(SpriteBatch batch, Floxel floxel, int colour) {
+  // display one of the floxels in a store
+  void draw(SpriteBatch batch, FloxelStore floxels, int index, int colour) {
+    
+    draw(batch, floxels.mX[index], floxels.mY[index], 
+         floxels.mShade[index], floxels.mFace[index], colour);
+    
+  } // draw()
+  
+  // display a floxel at a position (in base grid units)
+  void draw(SpriteBatch batch, float xPos, float yPos, 
+            int shade, int face, int colour) {
 
     final float xScale = Env.gameWidth() / (float)Env.numTilesX(),
                 yScale = Env.gameHeight() / (float)Env.numTilesY();
 
-    int x = (int)(floxel.mX * xScale) + Env.gameOffsetX(),
-        y = (int)(floxel.mY * yScale) + Env.gameOffsetY();
+    int x = (int)(xPos * xScale) + Env.gameOffsetX(),
+        y = (int)(yPos * yScale) + Env.gameOffsetY();
       
-    if ( floxel.mFace < Floxel.NUM_NORMAL_FACES ) {
+    if ( face < Floxel.NUM_NORMAL_FACES ) {
       
       final int index = ( colour*Floxel.NUM_SHADES 
-                          + floxel.mShade )*Floxel.NUM_NORMAL_FACES
-                        + floxel.mFace;
+                          + shade )*Floxel.NUM_NORMAL_FACES
+                        + face;
   
       final int iu = index % mFacesPerRow,
                 iv = index / mFacesPerRow;
@@ -307,7 +316,7 @@ public class FloxelPainter {
       
     } else {
 
-      assert( floxel.mFace == Floxel.SPLAT_FACE );
+      assert( face == Floxel.SPLAT_FACE );
       
       final float u0 = mTextureSplatU + colour*mTextureSplatShiftU,
                   u1 = u0 + mTextureSplatSizeU,
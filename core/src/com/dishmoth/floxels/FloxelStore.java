@@ -0,0 +1,230 @@
+/*
+ *  FloxelStore.java
+ *  Copyright (c) 2016 Simon Hern
+ *  Contact: dishmoth@yahoo.co.uk, dishmoth.com, github.com/dishmoth
+ */
+
+package com.dishmoth.floxels;
+
+import java.util.Arrays;
+
+// a number of particles, stored as one array per property
+// (the particle at index k has position (mX[k],mY[k]), and so on, which
+//  keeps the loops over many particles running through contiguous memory)
+// (the arrays are replaced if the store grows, so references to them should
+//  not be held on to across calls to ensureCapacity())
+// (lists are also kept of which particles are in use and which are in each
+//  state, so that loops can visit just the ones they care about)
+public final class FloxelStore {
+
+  // current mode of behaviour (Floxel.UNUSED, Floxel.NORMAL, etc.)
+  // (read-only: the state must be changed using setState())
+  public byte mState[];
+
+  // position (in base grid units)
+  public float mX[],
+               mY[];
+
+  // timer counting down depending on current state (0 if not in use)
+  public short mTimer[];
+
+  // score rating for the floxel's current cluster (0 to maxClusterScore())
+  public byte mCluster[];
+
+  // if true then the floxel is on top of another of the same type
+  public boolean mNeedsNudge[];
+
+  // which population the floxel belongs to
+  public byte mType[];
+
+  // brightness of the floxel (0 to NUM_SHADES-1)
+  public byte mShade[];
+
+  // which face the floxel is showing (0 to NUM_FACES-1)
+  public byte mFace[];
+
+  // indices of the particles in use (the first mNumActive entries), and 
+  // the position of each particle in the list (or -1 if it is unused)
+  private int mActive[];
+  private int mNumActive;
+  private int mActivePos[];
+
+  // indices of the particles in each state (the first mNumInState[state]
+  // entries of each list), and the position of each particle in the list
+  // for its current state
+  private final int mInState[][];
+  private final int mNumInState[];
+  private int       mStatePos[];
+
+  // constructor (every particle starts off unused)
+  public FloxelStore(int capacity) {
+
+    assert( capacity > 0 );
+
+    mState      = new byte[capacity];
+    mX          = new float[capacity];
+    mY          = new float[capacity];
+    mTimer      = new short[capacity];
+    mCluster    = new byte[capacity];
+    mNeedsNudge = new boolean[capacity];
+    mType       = new byte[capacity];
+    mShade      = new byte[capacity];
+    mFace       = new byte[capacity];
+
+    mActive     = new int[capacity];
+    mActivePos  = new int[capacity];
+    
+    mInState    = new int[Floxel.NUM_STATES][capacity];
+    mNumInState = new int[Floxel.NUM_STATES];
+    mStatePos   = new int[capacity];
+    
+    clear();
+
+  } // constructor
+
+  // number of particles in the store
+  public int capacity() { return mState.length; }
+
+  // make room for at least a certain number of particles
+  // (the store at least doubles in size each time it grows, and the new 
+  //  particles are all unused)
+  public void ensureCapacity(int capacity) {
+    
+    final int oldCapacity = capacity();
+    if ( capacity <= oldCapacity ) return;
+    capacity = Math.max(capacity, 2*oldCapacity);
+
+    mState      = Arrays.copyOf(mState, capacity);
+    mX          = Arrays.copyOf(mX, capacity);
+    mY          = Arrays.copyOf(mY, capacity);
+    mTimer      = Arrays.copyOf(mTimer, capacity);
+    mCluster    = Arrays.copyOf(mCluster, capacity);
+    mNeedsNudge = Arrays.copyOf(mNeedsNudge, capacity);
+    mType       = Arrays.copyOf(mType, capacity);
+    mShade      = Arrays.copyOf(mShade, capacity);
+    mFace       = Arrays.copyOf(mFace, capacity);
+
+    mActive     = Arrays.copyOf(mActive, capacity);
+    mActivePos  = Arrays.copyOf(mActivePos, capacity);
+    Arrays.fill(mActivePos, oldCapacity, capacity, -1);
+    
+    for ( int state = 0 ; state < Floxel.NUM_STATES ; state++ ) {
+      mInState[state] = Arrays.copyOf(mInState[state], capacity);
+    }
+    mStatePos   = Arrays.copyOf(mStatePos, capacity);
+    
+    final int unused[] = mInState[Floxel.UNUSED];
+    for ( int k = oldCapacity ; k < capacity ; k++ ) {
+      final int pos = mNumInState[Floxel.UNUSED]++;
+      unused[pos] = k;
+      mStatePos[k] = pos;
+    }
+    
+  } // ensureCapacity()
+
+  // mark every particle as unused
+  public void clear() {
+
+    Arrays.fill(mState, Floxel.UNUSED);
+    Arrays.fill(mTimer, (short)0);
+
+    mNumActive = 0;
+    Arrays.fill(mActivePos, -1);
+    
+    final int unused[] = mInState[Floxel.UNUSED];
+    for ( int k = 0 ; k < unused.length ; k++ ) {
+      unused[k] = k;
+      mStatePos[k] = k;
+    }
+    Arrays.fill(mNumInState, 0);
+    mNumInState[Floxel.UNUSED] = unused.length;
+
+  } // clear()
+
+  // change the state of a particle, keeping the lists up to date
+  public void setState(int index, byte state) {
+
+    assert( index >= 0 && index < capacity() );
+    assert( state >= 0 && state < Floxel.NUM_STATES );
+    
+    final byte oldState = mState[index];
+    if ( state == oldState ) return;
+    
+    // move between the state lists
+    final int oldList[] = mInState[oldState];
+    final int pos = mStatePos[index],
+              last = --mNumInState[oldState];
+    assert( oldList[pos] == index );
+    oldList[pos] = oldList[last];
+    mStatePos[oldList[pos]] = pos;
+    
+    mInState[state][mNumInState[state]] = index;
+    mStatePos[index] = mNumInState[state]++;
+    
+    mState[index] = state;
+    
+    // join or leave the list of particles in use
+    if ( oldState == Floxel.UNUSED ) {
+      mActive[mNumActive] = index;
+      mActivePos[index] = mNumActive++;
+    } else if ( state == Floxel.UNUSED ) {
+      final int activePos = mActivePos[index];
+      mActive[activePos] = mActive[--mNumActive];
+      mActivePos[mActive[activePos]] = activePos;
+      mActivePos[index] = -1;
+      mTimer[index] = 0;
+    }
+    
+  } // setState()
+
+  // bring an unused particle into use, returning its index
+  // (the particle is picked at random from the unused ones, and is put at a 
+  //  random position in the active() list, so that the order in which the 
+  //  particles are drawn stays mixed up)
+  public int allocate(byte state) {
+
+    assert( state != Floxel.UNUSED );
+    
+    final int numUnused = mNumInState[Floxel.UNUSED];
+    assert( numUnused > 0 );
+    
+    final int index = mInState[Floxel.UNUSED][Env.randomInt(numUnused)];
+    setState(index, state);
+    swapActive(mNumActive-1, Env.randomInt(mNumActive));
+    return index;
+    
+  } // allocate()
+
+  // number of particles in use
+  public int numActive() { return mNumActive; }
+  
+  // indices of the particles in use (only the first numActive() entries)
+  // (changing a particle's state to or from UNUSED reorders the list, but 
+  //  only by moving the last entry into the place of one that leaves, so 
+  //  loops that may remove particles should run from the end backwards)
+  public int[] active() { return mActive; }
+  
+  // number of particles in a particular state
+  public int numInState(byte state) { return mNumInState[state]; }
+  
+  // indices of the particles in a particular state (only the first 
+  // numInState() entries, with the same reordering as for active())
+  public int[] inState(byte state) { return mInState[state]; }
+
+  // exchange the positions of two particles in the active() list
+  // (so that, for instance, a particle can be drawn after the others)
+  public void swapActive(int pos1, int pos2) {
+
+    assert( pos1 >= 0 && pos1 < mNumActive );
+    assert( pos2 >= 0 && pos2 < mNumActive );
+    
+    final int index1 = mActive[pos1],
+              index2 = mActive[pos2];
+    mActive[pos1] = index2;
+    mActive[pos2] = index1;
+    mActivePos[index1] = pos2;
+    mActivePos[index2] = pos1;
+    
+  } // swapActive()
+
+} // class FloxelStore
@@ -22,12 +22,17 @@ public class Floxels extends Sprite {
   // how sprite is displayed relative to others
   static private final int kScreenLayer = 50; 
 
-  // maximum number of particles supported
-  static private final int kNumFloxels = 1000;
+  // number of floxels advanced together as one part of a parallel task
+  // (fixed, rather than depending on the number of threads, so that the 
+  //  random numbers each floxel sees are the same on every machine)
+  static private final int kAdvanceChunkSize = 512;
+
+  // number of particles supported unless another number is specified
+  // (more room is made if more particles are released)
+  static private final int kDefaultNumFloxels = 1000;
   
-  // details of how particles are launched or deleted
-  static private final int kReleaseStep = 3,
-                           kReclaimStep = 4;
+  // details of how particles are deleted
+  static private final int kReclaimStep = 4;
 
   // time range between marking a floxel as reclaimed and it vanishing
   static private final float kMinReclaimTime = 0.5f,
@@ -51,10 +56,17 @@ public class Floxels extends Sprite {
   // the refinement of the kill grid relative to the base grid
   static private final int kKillGridSubdivide = 6;
 
+  // states in which floxels can be splatted by the other population
+  static private final byte kVulnerableStates[] = { Floxel.NORMAL, 
+                                                    Floxel.STUNNED };
+
   // source terms controlling flocking behaviour
   static private final float kFlockAttractionStrength = 0.3f,
                              kFlockRepulsionStrength  = 3.0f;
 
+  // attractive flocking terms fill blocks of this fraction of a base cell
+  static private final int kFlockBlockSubdivide = 2;
+
   // source term reaction to a team-mate getting splatted  
   static private final float kSplatRepulsionStrength = 50.0f;
   
@@ -72,17 +84,19 @@ public class Floxels extends Sprite {
   // how floxels are summoned to the cursor
   static private final float kSummonSpeed = 70.0f;
   
-  // the flow field
+  // the flow field for each population
   private Flow mFlows[];
 
-  // maximum number of different populations supported
+  // number of different populations (one for each flow)
   private final int mNumFloxelTypes;
 
   // different velocity scales for different floxel types
   private float mVelocityFactors[];
   
-  // source terms controlling hunting and fleeing
-  private float mHuntingStrengths[];  
+  // source terms controlling hunting and fleeing, as [type][otherType]
+  // (each floxel of one type adds a source term to the flow of every other
+  //  type: negative to be hunted by that type, positive to be fled from)
+  private float mHuntingStrengths[][];  
   
   // size of each population
   private int mNumActiveFloxels[];
@@ -95,23 +109,50 @@ public class Floxels extends Sprite {
                     mGridYSize;
   
   // the particles
-  private Floxel mFloxels[];
+  private FloxelStore mFloxels;
 
   // total number of floxels in each cell of the base grid
   private int mFloxelCounts[][][];
   
-  // utility for determining how large clusters of floxels are
-  private Clusters mClusters;
+  // statistics built from the counts (updated along with them)
+  private FloxelDensity mDensity;
+  
+  // utilities for determining how large clusters of floxels are
+  // (one for each population, so that they can all be filled at once)
+  private Clusters mClusters[];
 
   // workspace for detecting collisions between different types of floxels
-  private int mKillGrid[][];
+  private KillGrid mKillGrid;
+  
+  // the flows' source terms (fetched afresh by each call to defineSources())
+  private SourceAccumulator mSources[];
+  
+  // number of calls to defineSources(), which stamps the blocks of the
+  // grid below as it writes them (blocks with older stamps count as empty,
+  // so the grid never needs to be cleared)
+  private int mSourceRound;
   
-  // spare velocity object 
-  private Flow.Vel mVelObj = new Flow.Vel();
+  // for each population, the round in which each flocking block was last
+  // given its attractive source term
+  private int mAttractedBlocks[][];
+  
+  // for each population, the number of floxels in each cell of the flows'
+  // top grid, to spot floxels lying on top of one another (a reclaimed 
+  // floxel counts as minus one) (cleared by each call to defineSources())
+  private CellCounts mCellOccupancy[];
+  
+  // workspace for each chunk of floxels advanced by mAdvanceTask
+  private AdvanceChunk mAdvanceChunks[] = new AdvanceChunk[0];
+  
+  // job for advancing chunks of floxels in parallel
+  private final AdvanceTask mAdvanceTask = new AdvanceTask();
     
   // random modifications to the floxel faces 
+  // (the tail that ends blinks waits for a number of steps before following
+  //  the head round, so that it lags behind by the length of a blink)
   private int mFaceChangeIndex,
-              mFaceChangeTailIndex;
+              mFaceChangeTailIndex,
+              mFaceChangeTailDelay;
 
   // capture point to which floxels are pulled (unless type is -1)
   private int   mPullType;
@@ -125,28 +166,61 @@ public class Floxels extends Sprite {
   // if true, floxels don't recover from being stunned (when quitting the game)
   private boolean mPlayDead;
   
-  // constructor
+  // workspace for advancing one chunk of floxels
+  // (changes of state, and floxels leaving the populations, are recorded 
+  //  here and applied once every chunk is done, since the store's lists 
+  //  cannot be changed by several threads at once)
+  static private class AdvanceChunk {
+    final Flow.Vel     mVel           = new Flow.Vel();
+    final RandomStream mRandom        = new RandomStream(0);
+    final int          mChangeIndex[] = new int[kAdvanceChunkSize];
+    final byte         mChangeState[] = new byte[kAdvanceChunkSize];
+    int                mNumChanges;
+    final int          mNumReclaimed[];
+    AdvanceChunk(int numTypes) { mNumReclaimed = new int[numTypes]; }
+  } // class Floxels.AdvanceChunk
+  
+  // advance one chunk of the active floxels
+  private class AdvanceTask implements TaskPool.Task {
+    public void run(int chunk) {
+      final AdvanceChunk work = mAdvanceChunks[chunk];
+      final int active[] = mFloxels.active();
+      final int pos0 = chunk*kAdvanceChunkSize,
+                pos1 = Math.min(pos0+kAdvanceChunkSize, mFloxels.numActive());
+      for ( int pos = pos0 ; pos < pos1 ; pos++ ) {
+        advanceFloxel(active[pos], work);
+      }
+    }
+  } // class Floxels.AdvanceTask
+  
+  // constructor (one population for each of the flows)
   public Floxels(Flow flows[]) {
     
+    this(flows, kDefaultNumFloxels);
+    
+  } // constructor
+  
+  // constructor (with room initially for a given number of floxels)
+  public Floxels(Flow flows[], int numFloxels) {
+    
     super(kScreenLayer);
     
+    assert( flows.length >= 1 && flows.length <= Byte.MAX_VALUE );
+    assert( numFloxels > 0 );
+    
     mFlows = flows;
 
     mGridXSize = mFlows[0].baseXSize();
     mGridYSize = mFlows[0].baseYSize();
     
-    mFloxels = new Floxel[kNumFloxels];
-    for ( int k = 0 ; k < kNumFloxels ; k++ ) {
-      if ( mFloxels[k] == null ) mFloxels[k] = new Floxel();
-    }
+    mFloxels = new FloxelStore(numFloxels);
 
     mNumFloxelTypes = mFlows.length;
 
     mVelocityFactors = new float[mNumFloxelTypes];
     Arrays.fill(mVelocityFactors, kDefaultVelocityFactor);
     
-    mHuntingStrengths = new float[mNumFloxelTypes];
-    Arrays.fill(mHuntingStrengths, 0.0f);
+    mHuntingStrengths = new float[mNumFloxelTypes][mNumFloxelTypes];
     
     mNumActiveFloxels = new int[mNumFloxelTypes];
     Arrays.fill(mNumActiveFloxels, 0);
@@ -155,15 +229,31 @@ public class Floxels extends Sprite {
     Arrays.fill(mTypeColours, 0);
     
     mFloxelCounts = new int[mNumFloxelTypes][mGridYSize][mGridXSize];
+    mDensity = new FloxelDensity(mGridXSize, mGridYSize, mNumFloxelTypes);
+    
+    mClusters = new Clusters[mNumFloxelTypes];
+    for ( int type = 0 ; type < mNumFloxelTypes ; type++ ) {
+      mClusters[type] = new Clusters(mFlows[type], 2, numFloxels);
+    }
     
-    mClusters = new Clusters(mFlows[0], 2, kNumFloxels);
+    mKillGrid = new KillGrid(mGridXSize, mGridYSize, kKillGridSubdivide,
+                             mNumFloxelTypes);
     
-    mKillGrid = new int[mGridYSize*kKillGridSubdivide+1]
-                       [mGridXSize*kKillGridSubdivide+1];
+    final int numBlocks = kFlockBlockSubdivide*mGridXSize
+                          * kFlockBlockSubdivide*mGridYSize;
+    mSources = new SourceAccumulator[mNumFloxelTypes];
+    mSourceRound = 0;
+    mAttractedBlocks = new int[mNumFloxelTypes][numBlocks];
+    mCellOccupancy = new CellCounts[mNumFloxelTypes];
+    for ( int type = 0 ; type < mNumFloxelTypes ; type++ ) {
+      mCellOccupancy[type] = new CellCounts(mFlows[0].baseXSize(),
+                                            mFlows[0].baseYSize(),
+                                            mFlows[0].refineFactor());
+    }
 
     mFaceChangeIndex = 0;
-    mFaceChangeTailIndex = -Math.round( kNumFloxels * kBlinkTimeSeconds 
-                                        / kFaceChangeSeconds );
+    mFaceChangeTailIndex = 0;
+    mFaceChangeTailDelay = faceChangeLag(mFloxels.capacity());
 
     mPullType = -1;
     mPullXPos = mPullYPos = mPullRadius = 0.0f;
@@ -173,8 +263,15 @@ public class Floxels extends Sprite {
     
   } // constructor
 
-  // the total number of floxels supported
-  public int maxFloxels() { return kNumFloxels; }
+  // the total number of floxels currently supported
+  // (this grows if more floxels are released than there is room for)
+  public int maxFloxels() { return mFloxels.capacity(); }
+
+  // number of different populations
+  public int numFloxelTypes() { return mNumFloxelTypes; }
+
+  // access (read-only) to the particle details
+  public FloxelStore floxels() { return mFloxels; }
 
   // current number of floxels of a particular type
   public int numFloxels(int type) { 
@@ -212,6 +309,10 @@ public class Floxels extends Sprite {
     
   } // countFloxels()
 
+  // access (read-only) to statistics about where the floxels are
+  // (summed-area tables, most crowded cells, etc., from the latest counts)
+  public FloxelDensity density() { return mDensity; }
+
   // set the velocity factor for a population
   public void setVelocityFactor(int type, float vel) {
     
@@ -221,11 +322,24 @@ public class Floxels extends Sprite {
     
   } // setVelocityFactor()
   
-  // set the hunt/flee factor for a population
+  // set the hunt/flee factor for a population (as seen by all the others)
   public void setHuntingStrength(int type, float val) {
     
     assert( type >= 0 && type < mNumFloxelTypes );
-    mHuntingStrengths[type] = val;
+    for ( int otherType = 0 ; otherType < mNumFloxelTypes ; otherType++ ) {
+      if ( otherType != type ) mHuntingStrengths[type][otherType] = val;
+    }
+    
+  } // setHuntingStrength()
+  
+  // set the hunt/flee factor for a population as seen by one other
+  // (negative if the other population hunts it, positive if it flees)
+  public void setHuntingStrength(int type, int otherType, float val) {
+    
+    assert( type >= 0 && type < mNumFloxelTypes );
+    assert( otherType >= 0 && otherType < mNumFloxelTypes );
+    assert( otherType != type );
+    mHuntingStrengths[type][otherType] = val;
     
   } // setHuntingStrength()
   
@@ -239,9 +353,9 @@ public class Floxels extends Sprite {
     assert( y >= 0 && y <= mGridYSize );
     assert( radius >= 0 );
     
-    int numActive = 0;
-    for ( int n : mNumActiveFloxels ) numActive += n;
-    assert( numActive + num <= kNumFloxels );
+    final int oldCapacity = mFloxels.capacity();
+    mFloxels.ensureCapacity(mFloxels.numActive() + num);
+    if ( mFloxels.capacity() != oldCapacity ) capacityChanged(oldCapacity);
 
     final float margin = 0.001f;
     radius = Math.max(radius, 2*margin); 
@@ -252,15 +366,9 @@ public class Floxels extends Sprite {
                 dy1 = Math.min(+radius, mGridYSize-margin-y);
     assert( dx1 > dx0 && dy1 > dy0 );
     
-    int index = Env.randomInt(kNumFloxels);
+    final RandomStream faceRandom = Env.random(Env.RANDOM_FACES);
+    
     while ( num > 0 ) {
-      while ( mFloxels[index].mState != Floxel.State.UNUSED ) {
-        index += kReleaseStep;
-        if ( index >= kNumFloxels ) {
-          index = (index+1) % kReleaseStep;
-        }
-      }
-      
       float dx, dy;
       do {
         dx = radius*Env.randomFloat(-1.0f, +1.0f); 
@@ -269,16 +377,17 @@ public class Floxels extends Sprite {
                 dx < dx0 || dx > dx1 || 
                 dy < dy0 || dy > dy1 );
       
-      Floxel floxel = mFloxels[index];
-      floxel.mState = Floxel.State.NORMAL;
-      floxel.mX = x + dx; 
-      floxel.mY = y + dy;
-      floxel.mTimer = 0;
-      floxel.mCluster = (byte)Env.randomInt( Clusters.maxClusterScore()+1 );
-      floxel.mNeedsNudge = false;
-      floxel.mType = (byte)type;
-      floxel.mShade = (byte)Env.randomInt( Floxel.NUM_SHADES );
-      floxel.mFace = (byte)Env.randomInt( Floxel.NUM_EXPRESSIONS );
+      final int index = mFloxels.allocate(Floxel.NORMAL);
+      mFloxels.mX[index] = x + dx; 
+      mFloxels.mY[index] = y + dy;
+      mFloxels.mTimer[index] = 0;
+      mFloxels.mCluster[index] = 
+                   (byte)Env.randomInt( Clusters.maxClusterScore()+1 );
+      mFloxels.mNeedsNudge[index] = false;
+      mFloxels.mType[index] = (byte)type;
+      mFloxels.mShade[index] = (byte)faceRandom.nextInt( Floxel.NUM_SHADES );
+      mFloxels.mFace[index] = 
+                      (byte)faceRandom.nextInt( Floxel.NUM_EXPRESSIONS );
       
       mNumActiveFloxels[type]++;
       num--;
@@ -297,25 +406,26 @@ public class Floxels extends Sprite {
     final int minTime = Math.round(kMinReclaimTime * Env.TICKS_PER_SEC),
               maxTime = Math.round(kMaxReclaimTime * Env.TICKS_PER_SEC);
     
+    final int capacity = mFloxels.capacity();
     int minClusterScore = 10;
     int numSteps = 0;
     
-    int index = Env.randomInt(kNumFloxels);
+    int index = Env.randomInt(capacity);
     while ( num > 0 ) {
-      while ( ( mFloxels[index].mState != Floxel.State.NORMAL &&
-                mFloxels[index].mState != Floxel.State.STUNNED ) ||
-              mFloxels[index].mType != type ||
-              mFloxels[index].mCluster < minClusterScore ) {
+      while ( ( mFloxels.mState[index] != Floxel.NORMAL &&
+                mFloxels.mState[index] != Floxel.STUNNED ) ||
+              mFloxels.mType[index] != type ||
+              mFloxels.mCluster[index] < minClusterScore ) {
         index += kReclaimStep;
-        if ( index >= kNumFloxels ) {
+        if ( index >= capacity ) {
           index = (index+1) % kReclaimStep;
         }
-        if ( ++numSteps == kNumFloxels ) minClusterScore = -100;
-        assert( numSteps <= 2*kNumFloxels );
+        if ( ++numSteps == capacity ) minClusterScore = -100;
+        assert( numSteps <= 2*capacity );
       }      
 
-      mFloxels[index].mState = Floxel.State.RECLAIMED;
-      mFloxels[index].mTimer = (byte)Env.randomInt(minTime, maxTime);
+      mFloxels.setState(index, Floxel.RECLAIMED);
+      mFloxels.mTimer[index] = (short)Env.randomInt(minTime, maxTime);
       num--;
     }
     
@@ -332,22 +442,28 @@ public class Floxels extends Sprite {
     final float r2A = radiusMin*radiusMin,
                 r2B = radiusMax*radiusMax;
 
+    final byte state[]   = mFloxels.mState,
+               types[]   = mFloxels.mType,
+               cluster[] = mFloxels.mCluster;
+    final float xPos[] = mFloxels.mX,
+                yPos[] = mFloxels.mY;
+    
+    final int active[] = mFloxels.active();
+    
     int num = 0;
     
-    for ( Floxel floxel : mFloxels ) {
-      if ( floxel.mState != Floxel.State.NORMAL &&
-           floxel.mState != Floxel.State.SPLATTED &&
-           floxel.mState != Floxel.State.STUNNED ) continue;
-      if ( type >= 0 && floxel.mType != type ) continue;
-      final float dx = floxel.mX - x,
-                  dy = floxel.mY - y;
+    for ( int pos = mFloxels.numActive()-1 ; pos >= 0 ; pos-- ) {
+      final int k = active[pos];
+      if ( state[k] == Floxel.RECLAIMED ) continue;
+      if ( type >= 0 && types[k] != type ) continue;
+      final float dx = xPos[k] - x,
+                  dy = yPos[k] - y;
       final float d2 = dx*dx + dy*dy;
       if ( d2 >= r2A && d2 < r2B ) {
-        floxel.mState = Floxel.State.STUNNED;
-        floxel.mTimer = (short)kStunTimeMax;
-        floxel.mCluster = mPlayDead ? (byte)Env.randomInt( floxel.mCluster+1 )
-                                    : 0;
-        floxel.mFace = (byte)Floxel.STUN_FACE;
+        mFloxels.setState(k, Floxel.STUNNED);
+        mFloxels.mTimer[k] = (short)kStunTimeMax;
+        cluster[k] = mPlayDead ? (byte)Env.randomInt( cluster[k]+1 ) : 0;
+        mFloxels.mFace[k] = (byte)Floxel.STUN_FACE;
         num += 1;
       }
     }
@@ -377,78 +493,84 @@ public class Floxels extends Sprite {
     mPullYPos = y;
     mPullRadius = pullRadius;
     
+    final byte state[] = mFloxels.mState,
+               types[] = mFloxels.mType;
+    final float xPos[] = mFloxels.mX,
+                yPos[] = mFloxels.mY;
+    
+    final int active[] = mFloxels.active();
+    
     int numCaptured = 0;
-    for ( Floxel floxel : mFloxels ) {
-      if ( floxel.mState != Floxel.State.NORMAL &&
-           floxel.mState != Floxel.State.STUNNED ) continue;
-      if ( type >= 0 && floxel.mType != type ) continue;
-      final float dx = floxel.mX - x,
-                  dy = floxel.mY - y;
+    for ( int pos = mFloxels.numActive()-1 ; pos >= 0 ; pos-- ) {
+      final int k = active[pos];
+      if ( state[k] != Floxel.NORMAL &&
+           state[k] != Floxel.STUNNED ) continue;
+      if ( type >= 0 && types[k] != type ) continue;
+      final float dx = xPos[k] - x,
+                  dy = yPos[k] - y;
       if ( dx*dx + dy*dy < captureRadius*captureRadius ) {
-        floxel.mState = Floxel.State.UNUSED;
+        mFloxels.setState(k, Floxel.UNUSED);
         numCaptured += 1;
-        mNumActiveFloxels[type] -= 1;
+        mNumActiveFloxels[types[k]] -= 1;
       }
     }
     return numCaptured;
     
   } // captureFloxels()
   
-  // convert some of the majority population and call them to the cursor
+  // convert some of the other populations and call them to the cursor
   // (move them to the end of the list so they are drawn over everything else)
   public void summonFloxels(int num, int type) {
     
-    final int otherType = 1-type;
-    
+    assert( type >= 0 && type < mNumFloxelTypes );
     assert( num > 0 );
-    assert( num <= mNumActiveFloxels[otherType] );
+    assert( num <= mFloxels.numActive() - mNumActiveFloxels[type] );
     
     final int splatTime = Math.round( Env.TICKS_PER_SEC*kSplatTime );
 
     final int step = Env.randomInt(1,100);
     int offset = 0;
     
-    int index = offset;
-    int endIndex = kNumFloxels;
+    final int active[] = mFloxels.active();
+    int pos = offset;
+    int endPos = mFloxels.numActive();
 
     int numGot = 0;
     while ( numGot < num ) {
-      Floxel floxel = mFloxels[index];
-      if ( floxel.mState != Floxel.State.UNUSED && 
-           floxel.mType == otherType ) {
-        floxel.mState = Floxel.State.SPLATTED;
-        floxel.mTimer = (byte)splatTime;
-        floxel.mFace = (byte)Floxel.SPLAT_FACE;
-        floxel.mCluster = (byte)Clusters.maxClusterScore();
-        floxel.mNeedsNudge = false;
-        floxel.mType = (byte)type;
-        floxel.mShade = (byte)0;
+      final int index = active[pos];
+      final int otherType = mFloxels.mType[index];
+      if ( otherType != type ) {
+        mNumActiveFloxels[otherType] -= 1;
+        mNumActiveFloxels[type] += 1;
+        
+        mFloxels.setState(index, Floxel.SPLATTED);
+        mFloxels.mTimer[index] = (short)splatTime;
+        mFloxels.mFace[index] = (byte)Floxel.SPLAT_FACE;
+        mFloxels.mCluster[index] = (byte)Clusters.maxClusterScore();
+        mFloxels.mNeedsNudge[index] = false;
+        mFloxels.mType[index] = (byte)type;
+        mFloxels.mShade[index] = (byte)0;
         
         do {
-          endIndex -= 1;
-          assert( endIndex >= 0 );
-        } while ( mFloxels[endIndex].mState != Floxel.State.UNUSED &&
-                  mFloxels[endIndex].mType == (byte)type &&
-                  endIndex > index );
+          endPos -= 1;
+          assert( endPos >= 0 );
+        } while ( mFloxels.mType[active[endPos]] == (byte)type &&
+                  endPos > pos );
         
-        mFloxels[index] = mFloxels[endIndex];
-        mFloxels[endIndex] = floxel;
+        mFloxels.swapActive(pos, endPos);
 
         numGot += 1;
       } else {
-        index += step;
+        pos += step;
       }
       
-      if ( index >= endIndex ) {
+      if ( pos >= endPos ) {
         offset += 1;
         assert( offset < step );
-        index = offset;
+        pos = offset;
       }
     }
     
-    mNumActiveFloxels[type] += num;
-    mNumActiveFloxels[otherType] -= num;
-    
     mSummonFloxels = true;
     
   } // summonFloxels()
@@ -466,22 +588,19 @@ public class Floxels extends Sprite {
     
     if ( mSummonFloxels ) {
       if ( mPullType == -1 ) {
-        for ( Floxel floxel : mFloxels ) {
-          if ( floxel.mState == Floxel.State.NORMAL ) floxel.mTimer = 0;
+        final int normal[] = mFloxels.inState(Floxel.NORMAL);
+        for ( int pos = mFloxels.numInState(Floxel.NORMAL)-1 ; 
+              pos >= 0 ; pos-- ) {
+          mFloxels.mTimer[normal[pos]] = 0;
         }
         mSummonFloxels = false;
       }
     }
     
-    for ( Floxel floxel : mFloxels ) {
-      if ( floxel.mState == Floxel.State.UNUSED ) continue;
-      advanceFloxel(floxel);
-    }
-
+    advanceFloxels();
     fightFloxels();
-    countFloxels();
+    takeCensus();
     setDesiredSolutionLevels();
-    makeClusters();
     updateFaces();
 
     for ( int type = 0 ; type < mNumFloxelTypes ; type++ ) {
@@ -495,83 +614,136 @@ public class Floxels extends Sprite {
     
   } // Sprite.advance()
 
+  // update positions for all floxels, sharing the work between threads
+  private void advanceFloxels() {
+    
+    final int numChunks = (mFloxels.numActive() + kAdvanceChunkSize - 1)
+                          / kAdvanceChunkSize;
+    if ( numChunks > mAdvanceChunks.length ) {
+      final int oldNum = mAdvanceChunks.length;
+      mAdvanceChunks = Arrays.copyOf(mAdvanceChunks, numChunks);
+      for ( int k = oldNum ; k < numChunks ; k++ ) {
+        mAdvanceChunks[k] = new AdvanceChunk(mNumFloxelTypes);
+      }
+    }
+    
+    for ( int k = 0 ; k < numChunks ; k++ ) {
+      final AdvanceChunk work = mAdvanceChunks[k];
+      Env.random(Env.RANDOM_SIMULATION).split(work.mRandom);
+      work.mNumChanges = 0;
+      Arrays.fill(work.mNumReclaimed, 0);
+    }
+    
+    Env.taskPool().run(mAdvanceTask, numChunks);
+    
+    for ( int k = 0 ; k < numChunks ; k++ ) {
+      final AdvanceChunk work = mAdvanceChunks[k];
+      for ( int i = 0 ; i < work.mNumChanges ; i++ ) {
+        mFloxels.setState(work.mChangeIndex[i], work.mChangeState[i]);
+      }
+      for ( int type = 0 ; type < mNumFloxelTypes ; type++ ) {
+        mNumActiveFloxels[type] -= work.mNumReclaimed[type];
+      }
+    }
+    
+  } // advanceFloxels()
+  
   // update position for a floxel
-  private void advanceFloxel(Floxel floxel) {
+  // (this can run on any thread, so it only changes the floxel itself and 
+  //  the chunk's workspace; see AdvanceChunk)
+  private void advanceFloxel(int index, AdvanceChunk work) {
 
     final float dt = Env.TICK_TIME;
     
-    final int type = floxel.mType;
+    final FloxelStore floxels = mFloxels;
+    final int type = floxels.mType[index];
 
     int flowType = type;
-    if ( mSummonFloxels && type == mPullType ) flowType = 1-mPullType;
+    if ( mSummonFloxels && type == mPullType ) {
+      flowType = (mPullType + 1) % mNumFloxelTypes;
+    }
     Flow flow = mFlows[flowType];
     
     // special behaviour for certain floxel states
 
+    final RandomStream random = work.mRandom;
+    final byte oldState = floxels.mState[index];
+    byte state = oldState;
     float slowdown = 1.0f;
-    switch ( floxel.mState ) {
-      case UNUSED: {
+    int timer = floxels.mTimer[index];
+    switch ( state ) {
+      case Floxel.UNUSED: {
         assert(false);
       } break;
             
-      case SPLATTED: {
-        assert( floxel.mTimer > 0 );
-        if ( --floxel.mTimer == 0 ) {
-          floxel.mState = Floxel.State.NORMAL;
-          floxel.mFace = (byte)Env.randomInt(Floxel.NUM_EXPRESSIONS);
+      case Floxel.SPLATTED: {
+        assert( timer > 0 );
+        if ( --timer == 0 ) {
+          state = Floxel.NORMAL;
+          floxels.mFace[index] = (byte)random.nextInt(Floxel.NUM_EXPRESSIONS);
         }
       } break;
       
-      case STUNNED: {
-        assert( floxel.mTimer > 0 );
-        floxel.mTimer--;
-        if ( floxel.mTimer == 0 ) {
-          floxel.mState = Floxel.State.NORMAL;
-        } else if ( floxel.mTimer < kStunTimeWake ) {
-          slowdown = 1.0f - floxel.mTimer/(float)kStunTimeWake;
-        } else if ( floxel.mTimer == kStunTimeWake ) {
+      case Floxel.STUNNED: {
+        assert( timer > 0 );
+        timer--;
+        if ( timer == 0 ) {
+          state = Floxel.NORMAL;
+        } else if ( timer < kStunTimeWake ) {
+          slowdown = 1.0f - timer/(float)kStunTimeWake;
+        } else if ( timer == kStunTimeWake ) {
           if ( mPlayDead ) {
-            floxel.mTimer += 1;
+            timer += 1;
           } else {
-            floxel.mFace = (byte)Env.randomInt(Floxel.NUM_EXPRESSIONS);
+            floxels.mFace[index] = 
+                          (byte)random.nextInt(Floxel.NUM_EXPRESSIONS);
           }
           slowdown = 0.0f;
-        } else if ( floxel.mTimer < kStunTimeMax-kStunTimeHalt ) {
+        } else if ( timer < kStunTimeMax-kStunTimeHalt ) {
           slowdown = 0.0f;
-        } else if ( floxel.mTimer == kStunTimeMax-kStunTimeHalt ) {
-          floxel.mTimer -= Env.randomInt(kStunTimeMax-kStunTimeMin);
+        } else if ( timer == kStunTimeMax-kStunTimeHalt ) {
+          timer -= random.nextInt(kStunTimeMax-kStunTimeMin);
           slowdown = 0.0f;
-          assert( floxel.mTimer > kStunTimeWake );
+          assert( timer > kStunTimeWake );
         } else {
           final int t0 = kStunTimeMax - kStunTimeHalt;
-          slowdown = (floxel.mTimer - t0)/(float)(kStunTimeMax - t0 - 1);
+          slowdown = (timer - t0)/(float)(kStunTimeMax - t0 - 1);
         }
         assert( slowdown >= 0.0f && slowdown <= 1.0f );
       } break;
       
-      case RECLAIMED: {
-        assert( floxel.mTimer > 0 );
-        if ( --floxel.mTimer == 0 ) {
-          floxel.mState = Floxel.State.UNUSED;
-          mNumActiveFloxels[type]--;
+      case Floxel.RECLAIMED: {
+        assert( timer > 0 );
+        if ( --timer == 0 ) {
+          work.mChangeIndex[work.mNumChanges] = index;
+          work.mChangeState[work.mNumChanges++] = Floxel.UNUSED;
+          work.mNumReclaimed[type]++;
           return;
         }
       } break;
 
-      case NORMAL: {
-        if ( !mSummonFloxels ) assert( floxel.mTimer == 0 );
+      case Floxel.NORMAL: {
+        if ( !mSummonFloxels ) assert( timer == 0 );
       } break;
     }
+    floxels.mTimer[index] = (short)timer;
+    if ( state != oldState ) {
+      work.mChangeIndex[work.mNumChanges] = index;
+      work.mChangeState[work.mNumChanges++] = state;
+    }
 
     if ( slowdown == 0.0f ) return;
     
     // determine the floxel's velocity
     
-    flow.getVelocity(floxel.mX, floxel.mY, mVelObj);
+    float x = floxels.mX[index],
+          y = floxels.mY[index];
+    final Flow.Vel vel = work.mVel;
+    flow.getVelocity(x, y, vel);
 
     float velocityFactor = mVelocityFactors[type] * slowdown;
-    float vx = velocityFactor * mVelObj.x,
-          vy = velocityFactor * mVelObj.y;
+    float vx = velocityFactor * vel.x,
+          vy = velocityFactor * vel.y;
     vx = Math.max(-kMaxSpeed, Math.min(+kMaxSpeed, vx));
     vy = Math.max(-kMaxSpeed, Math.min(+kMaxSpeed, vy));
 
@@ -580,27 +752,27 @@ public class Floxels extends Sprite {
 
     // don't let floxels pile up on each other
     
-    if ( floxel.mNeedsNudge ) {
-      dx += kNudgeDistance*( Env.randomBoolean() ? +1 : -1 );
-      dy += kNudgeDistance*( Env.randomBoolean() ? +1 : -1 );
+    if ( floxels.mNeedsNudge[index] ) {
+      dx += kNudgeDistance*( random.nextBoolean() ? +1 : -1 );
+      dy += kNudgeDistance*( random.nextBoolean() ? +1 : -1 );
     }
 
     // check whether the floxel is being pulled to the cursor
     
     boolean ignoreWalls = false;
     
-    if ( floxel.mType == mPullType ) {
-      float px = mPullXPos - floxel.mX,
-            py = mPullYPos - floxel.mY;
+    if ( type == mPullType ) {
+      float px = mPullXPos - x,
+            py = mPullYPos - y;
       float p2 = px*px + py*py;
       if ( mSummonFloxels || p2 <= mPullRadius*mPullRadius ) {
         float speed = kMaxSpeed;
         if ( mSummonFloxels ) {
-          if ( floxel.mState == Floxel.State.SPLATTED ) {
+          if ( state == Floxel.SPLATTED ) {
             speed = 0.0f;
           } else {
-            floxel.mTimer += 1;
-            float summonDt = floxel.mTimer*Env.TICK_TIME; 
+            floxels.mTimer[index] += 1;
+            float summonDt = floxels.mTimer[index]*Env.TICK_TIME; 
             speed = summonDt*summonDt*kSummonSpeed;
           }
         }
@@ -619,8 +791,6 @@ public class Floxels extends Sprite {
     
     // update the floxel's position, avoiding maze walls
     
-    float x = floxel.mX,
-          y = floxel.mY;
     float walls[] = flow.walls()[(int)y][(int)x];
 
     if ( ignoreWalls || 
@@ -641,78 +811,106 @@ public class Floxels extends Sprite {
     assert( x >= 0 && x < mGridXSize );
     assert( y >= 0 && y < mGridYSize );
     
-    floxel.mX = x;
-    floxel.mY = y;
+    floxels.mX[index] = x;
+    floxels.mY[index] = y;
     
   } // advanceFloxel()
 
-  // convert floxels if they collide with stronger ones of the other type
+  // convert floxels if they collide with stronger ones of another type
   private void fightFloxels() {
     
     if ( mSummonFloxels || mPlayDead ) return;
     
-    assert( mNumFloxelTypes == 2 );
+    final KillGrid killGrid = mKillGrid;
+    killGrid.reset(0.99f*Env.randomFloat(), 0.99f*Env.randomFloat());
     
-    for ( int ky = 0 ; ky < mKillGrid.length ; ky++ ) {
-      Arrays.fill(mKillGrid[ky], 0);
-    }
-
-    final float offsetX = 0.99f*Env.randomFloat(),
-                offsetY = 0.99f*Env.randomFloat();
+    final byte types[]   = mFloxels.mType,
+               cluster[] = mFloxels.mCluster;
+    final float xPos[] = mFloxels.mX,
+                yPos[] = mFloxels.mY;
     
-    for ( Floxel floxel : mFloxels ) {
-      if ( floxel.mState != Floxel.State.NORMAL ) continue;
-      final int kx = (int)(floxel.mX*kKillGridSubdivide + offsetX),
-                ky = (int)(floxel.mY*kKillGridSubdivide + offsetY);
-      final int strength = floxel.mCluster + 1;
-      if ( strength > Math.abs(mKillGrid[ky][kx]) ) {
-        mKillGrid[ky][kx] = ( floxel.mType == 0 ? +strength : -strength );
-      }
+    final int normal[] = mFloxels.inState(Floxel.NORMAL);
+    for ( int pos = mFloxels.numInState(Floxel.NORMAL)-1 ; pos >= 0 ; pos-- ) {
+      final int k = normal[pos];
+      killGrid.addAttacker(xPos[k], yPos[k], cluster[k], types[k]);
     }
     
     final int splatTime = Math.round( Env.TICKS_PER_SEC*kSplatTime );
     
     int killCount[] = new int[mNumFloxelTypes];
-    for ( Floxel floxel : mFloxels ) {
-      if ( floxel.mState != Floxel.State.NORMAL &&
-           floxel.mState != Floxel.State.STUNNED ) continue;
-      final int kx = (int)(floxel.mX*kKillGridSubdivide + offsetX),
-                ky = (int)(floxel.mY*kKillGridSubdivide + offsetY);
-      final int attackStrength = Math.abs(mKillGrid[ky][kx]) - 1,
-                attackType     = ( (mKillGrid[ky][kx] > 0) ? 0 : 1 );
-      if ( floxel.mType != attackType && floxel.mCluster <= attackStrength ) {
-        floxel.mState = Floxel.State.SPLATTED;
-        floxel.mTimer = (byte)splatTime;
-        floxel.mCluster = 0;
-        floxel.mType = (byte)attackType;
-        floxel.mShade = 0;
-        floxel.mFace = (byte)Floxel.SPLAT_FACE;
-        killCount[1-attackType] += 1;
+    for ( byte victimState : kVulnerableStates ) {
+      final int victims[] = mFloxels.inState(victimState);
+      for ( int pos = mFloxels.numInState(victimState)-1 ; pos >= 0 ; pos-- ) {
+        final int k = victims[pos];
+        final int attackType = killGrid.attackerType(xPos[k], yPos[k], 
+                                                     cluster[k], types[k]);
+        if ( attackType >= 0 ) {
+          killCount[types[k]] += 1;
+          mFloxels.setState(k, Floxel.SPLATTED);
+          mFloxels.mTimer[k] = (short)splatTime;
+          cluster[k] = 0;
+          types[k] = (byte)attackType;
+          mFloxels.mShade[k] = 0;
+          mFloxels.mFace[k] = (byte)Floxel.SPLAT_FACE;
+        }
       }
     }
     Env.sounds().playDeathSounds(killCount);
   
   } // fightFloxels()
   
-  // census of the floxel populations
-  private void countFloxels() {
+  // count the floxels in each cell of the base grid, and give each floxel 
+  // a cluster size rating (updating its shade to match)
+  // (every population is binned in one sweep over the floxels, and their 
+  //  cluster scores are read back in one more)
+  private void takeCensus() {
     
     for ( int type = 0 ; type < mNumFloxelTypes ; type++ ) {
       for ( int ky = 0 ; ky < mGridYSize ; ky++ ) {
         Arrays.fill(mFloxelCounts[type][ky], 0);
       }
       mNumActiveFloxels[type] = 0;
+      mClusters[type].reset();
     }
     
-    for ( Floxel floxel : mFloxels ) {
-      if ( floxel.mState == Floxel.State.UNUSED ) continue;
-      final int kx = (int)floxel.mX,
-                ky = (int)floxel.mY;
-      mFloxelCounts[floxel.mType][ky][kx] += 1;
-      mNumActiveFloxels[floxel.mType] += 1;
+    final byte state[]   = mFloxels.mState,
+               types[]   = mFloxels.mType,
+               cluster[] = mFloxels.mCluster,
+               shade[]   = mFloxels.mShade;
+    final float xPos[] = mFloxels.mX,
+                yPos[] = mFloxels.mY;
+    
+    final int active[] = mFloxels.active(),
+              numActive = mFloxels.numActive();
+    
+    for ( int pos = 0 ; pos < numActive ; pos++ ) {
+      final int k = active[pos];
+      final int type = types[k];
+      final float x = xPos[k],
+                  y = yPos[k];
+      mFloxelCounts[type][(int)y][(int)x] += 1;
+      mNumActiveFloxels[type] += 1;
+      if ( state[k] == Floxel.NORMAL ) mClusters[type].addPoint(x, y);
     }
     
-  } // countFloxels()
+    for ( int type = 0 ; type < mNumFloxelTypes ; type++ ) {
+      mClusters[type].makeClusters();
+    }
+    
+    final int maxScore = Clusters.maxClusterScore();
+    for ( int pos = 0 ; pos < numActive ; pos++ ) {
+      final int k = active[pos];
+      if ( state[k] == Floxel.NORMAL ) { 
+        final int n = mClusters[types[k]].getClusterScore(xPos[k], yPos[k]);
+        if      ( n > cluster[k] ) cluster[k]++;
+        else if ( n < cluster[k] ) cluster[k]--;
+      }
+      shade[k] = (byte)( (cluster[k] * (Floxel.NUM_SHADES-1)) / maxScore );
+    }
+    
+    mDensity.update(mFloxelCounts);
+    
+  } // takeCensus()
   
   // we only need a high-quality solution in the blocks where the floxels are
   public void setDesiredSolutionLevels() {
@@ -733,85 +931,54 @@ public class Floxels extends Sprite {
     
   } // setDesiredSolutionLevels()
   
-  // assign a cluster size rating to each floxel, and update its shade
-  private void makeClusters() {
-    
-    for ( int type = 0 ; type < mNumFloxelTypes ; type++ ) {
-    
-      mClusters.reset();
-  
-      for ( Floxel floxel : mFloxels ) {
-        if ( floxel.mState != Floxel.State.NORMAL || 
-             floxel.mType != type ) continue;
-        mClusters.addPoint(floxel.mX, floxel.mY);
-      }
-    
-      mClusters.makeClusters();
-    
-      for ( Floxel floxel : mFloxels ) {
-        if ( floxel.mState == Floxel.State.UNUSED ||
-             floxel.mType != type ) continue;
-
-        if ( floxel.mState == Floxel.State.NORMAL ) { 
-          final int n = mClusters.getClusterScore(floxel.mX, floxel.mY);
-          if      ( n > floxel.mCluster ) floxel.mCluster++;
-          else if ( n < floxel.mCluster ) floxel.mCluster--;
-        }
-        
-        floxel.mShade = (byte)( (floxel.mCluster * (Floxel.NUM_SHADES-1))
-                                / Clusters.maxClusterScore() );
-      }
-      
-    }
-
-  } // makeClusters()
-  
   // animate the faces of the floxels in a random-ish way
   private void updateFaces() {
     
     final int numFaces  = Floxel.NUM_EXPRESSIONS,
               blinkFace = Floxel.BLINK_FACE;
     
-    int newFace = Env.randomInt(numFaces);
-    float blink = Env.randomFloat() + kBlinkFraction;
+    final RandomStream random = Env.random(Env.RANDOM_FACES);
+    int newFace = random.nextInt(numFaces);
+    float blink = random.nextFloat() + kBlinkFraction;
 
-    final int numChanges = Math.round( (kNumFloxels/kFaceChangeSeconds)
+    final int capacity = mFloxels.capacity();
+    final int numChanges = Math.round( (capacity/kFaceChangeSeconds)
                                        / Env.TICKS_PER_SEC );
 
     // change the expressions of some faces, starting some blinking
     for ( int k = 0 ; k < numChanges ; k++ ) {
-      Floxel floxel = mFloxels[mFaceChangeIndex];
-      if ( floxel.mState == Floxel.State.NORMAL ) {
-        assert( floxel.mFace != Floxel.SPLAT_FACE && 
-                floxel.mFace != Floxel.STUN_FACE );
+      final int index = mFaceChangeIndex;
+      if ( mFloxels.mState[index] == Floxel.NORMAL ) {
+        assert( mFloxels.mFace[index] != Floxel.SPLAT_FACE && 
+                mFloxels.mFace[index] != Floxel.STUN_FACE );
         if ( blink >= 1.0f ) {
-          floxel.mFace = (byte)blinkFace;
+          mFloxels.mFace[index] = (byte)blinkFace;
           blink -= 1.0f;
         } else {
-          floxel.mFace = (byte)newFace;
+          mFloxels.mFace[index] = (byte)newFace;
           newFace = (newFace+1) % numFaces;
         }
         blink += kBlinkFraction;
       }
       mFaceChangeIndex += kFaceChangeStep;
-      if ( mFaceChangeIndex >= kNumFloxels ) {
+      if ( mFaceChangeIndex >= capacity ) {
         mFaceChangeIndex = (mFaceChangeIndex+1) % kFaceChangeStep;
       }
     }
 
     // convert blinks back to ordinary faces after a while
     for ( int k = 0 ; k < numChanges ; k++ ) {
-      if ( mFaceChangeTailIndex < 0 ) {
-        mFaceChangeTailIndex++;
+      if ( mFaceChangeTailDelay > 0 ) {
+        mFaceChangeTailDelay--;
       } else {
-        Floxel floxel = mFloxels[mFaceChangeTailIndex];
-        if ( floxel.mState == Floxel.State.NORMAL && 
-             floxel.mFace == blinkFace ) {
-          floxel.mFace = (byte)newFace;
+        final int index = mFaceChangeTailIndex;
+        if ( mFloxels.mState[index] == Floxel.NORMAL && 
+             mFloxels.mFace[index] == blinkFace ) {
+          mFloxels.mFace[index] = (byte)newFace;
           newFace = (newFace+1) % numFaces;
         }
         mFaceChangeTailIndex += kFaceChangeStep;
-        if ( mFaceChangeTailIndex >= kNumFloxels ) {
+        if ( mFaceChangeTailIndex >= capacity ) {
           mFaceChangeTailIndex = (mFaceChangeTailIndex+1) % kFaceChangeStep;
         }
       }
@@ -819,118 +986,179 @@ public class Floxels extends Sprite {
 
   } // updateFaces()
 
-  // add source terms to make the floxels flock together
-  public void defineFlockingSources() {
+  // number of face changes that the end of a blink lags behind its start
+  // (the number of changes per tick is proportional to the capacity)
+  static private int faceChangeLag(int capacity) {
+    
+    return Math.round( capacity * kBlinkTimeSeconds / kFaceChangeSeconds );
+    
+  } // faceChangeLag()
+  
+  // update everything that depends on the number of particles in the store
+  // (the cluster scores are scaled by the population size the game asked
+  //  for, so they stay as they are)
+  private void capacityChanged(int oldCapacity) {
+    
+    final int capacity = mFloxels.capacity();
+    
+    // (face changes now come faster, so the tail must fall further behind)
+    mFaceChangeTailDelay += faceChangeLag(capacity) 
+                            - faceChangeLag(oldCapacity);
+    
+  } // capacityChanged()
+
+  // set the source terms for the flows from the floxels' positions
+  // (flocking terms attract floxels to the general vicinity of their 
+  //  team-mates but push them away from their precise positions, and 
+  //  hunting terms draw the other populations towards them or away)
+  // (everything is done in a single sweep over the floxels)
+  public void defineSources() {
     
     final int refinement = mFlows[0].refineFactor();
+    final int subSize    = refinement/kFlockBlockSubdivide,
+              numBlocksX = kFlockBlockSubdivide*mGridXSize;
 
     // set all source terms to zero initially
-    for ( int type = 0 ; type < mFlows.length ; type++ ) {
+    for ( int type = 0 ; type < mNumFloxelTypes ; type++ ) {
       mFlows[type].clearSource();
+      mSources[type] = mFlows[type].sources();
+      mCellOccupancy[type].clear();
     }
 
-    // attractive terms are applied in the general vicinity of the floxels 
-    final int subdivide = 2,
-              subSize   = refinement/subdivide;
-    for ( Floxel floxel : mFloxels ) {
-      if ( floxel.mState == Floxel.State.UNUSED ) continue;
-      float source[][] = mFlows[floxel.mType].source();
-    
-      final int kx = subSize*(int)(floxel.mX*subdivide),
-                ky = subSize*(int)(floxel.mY*subdivide);
-
-      if ( source[ky][kx] == 0.0f ) {
+    if ( ++mSourceRound == Integer.MAX_VALUE ) {
+      for ( int type = 0 ; type < mNumFloxelTypes ; type++ ) {
+        Arrays.fill(mAttractedBlocks[type], 0);
+      }
+      mSourceRound = 1;
+    }
+    final int round = mSourceRound;
+    
+    final byte state[]   = mFloxels.mState,
+               types[]   = mFloxels.mType,
+               cluster[] = mFloxels.mCluster;
+    final float xPos[] = mFloxels.mX,
+                yPos[] = mFloxels.mY;
+    final boolean needsNudge[] = mFloxels.mNeedsNudge;
+    
+    final int active[] = mFloxels.active(),
+              numActive = mFloxels.numActive();
+    
+    for ( int pos = 0 ; pos < numActive ; pos++ ) {
+      final int index = active[pos];
+      final int type = types[index];
+      final float x = xPos[index],
+                  y = yPos[index];
+      
+      // (every term for a floxel lands in the block of the base grid that
+      //  it is in, so only that block is marked as written to)
+      final int ix = (int)x,
+                iy = (int)y;
+      final SourceAccumulator sources = mSources[type];
+      final float source[] = sources.touch(ix, iy);
+      final int stride = sources.blockStride(),
+                k00 = sources.blockOffset(ix, iy);
+      
+      // attractive terms are applied in the general vicinity of the floxels 
+      final int bx = (int)(x*kFlockBlockSubdivide),
+                by = (int)(y*kFlockBlockSubdivide);
+      final int attracted[] = mAttractedBlocks[type];
+      if ( attracted[bx + by*numBlocksX] != round ) {
+        attracted[bx + by*numBlocksX] = round;
+        final int k0 = k00 + subSize*(bx - kFlockBlockSubdivide*ix)
+                           + subSize*(by - kFlockBlockSubdivide*iy)*stride;
         for ( int dy = 0 ; dy < subSize ; dy++ ) {
+          final int k = k0 + dy*stride;
           for ( int dx = 0 ; dx < subSize ; dx++ ) {
-            source[ky+dy][kx+dx] = -kFlockAttractionStrength;
+            source[k+dx] -= kFlockAttractionStrength;
           }
         }
       }
-    }
-    
-    // repulsive terms are applied at the precise positions of the floxels
-    for ( Floxel floxel : mFloxels ) {
-      if ( floxel.mState == Floxel.State.UNUSED ) continue;
-      float source[][] = mFlows[floxel.mType].source();
-
-      final int kx = (int)(floxel.mX*refinement),
-                ky = (int)(floxel.mY*refinement);
-
-      if ( floxel.mState == Floxel.State.RECLAIMED ) {
-        source[ky][kx] -= kFlockRepulsionStrength;
+      
+      // repulsive terms are applied at the precise positions of the floxels
+      final int jx = (int)(x*refinement) - ix*refinement,
+                jy = (int)(y*refinement) - iy*refinement,
+                k  = k00 + jx + jy*stride,
+                c  = jx + jy*refinement;
+      final int occupancy[] = mCellOccupancy[type].touch(ix, iy);
+      if ( state[index] == Floxel.RECLAIMED ) {
+        source[k] -= kFlockRepulsionStrength;
+        occupancy[c] -= 1;
       } else {
-        floxel.mNeedsNudge = (source[ky][kx] > 0.0f);
-        source[ky][kx] += kFlockRepulsionStrength;
+        needsNudge[index] = ( occupancy[c] > 0 );
+        source[k] += kFlockRepulsionStrength;
+        occupancy[c] += 1;
       }
-    }
-    
-    //int numCoincidences = 0;
-    //for ( Floxel floxel : mFloxels ) {
-    //  if ( floxel.mActive && floxel.mNeedsNudge ) numCoincidences+=1;
-    //}
-    //System.out.println(numCoincidences);
-    
-  } // defineFlockingSources()
-  
-  // contributions to the source terms to effect hunting and fleeing  
-  public void addHuntingSources() {
-    
-    final int refinement = mFlows[0].refineFactor();
-
-    for ( Floxel floxel : mFloxels ) {
-      if ( floxel.mState == Floxel.State.UNUSED ) continue;
-
-      final int kx = (int)(floxel.mX * refinement),
-                ky = (int)(floxel.mY * refinement);
-
-      float strength = mHuntingStrengths[floxel.mType];
-      if ( floxel.mState == Floxel.State.SPLATTED ) {
-        strength = Math.max(strength, kSplatRepulsionStrength);
-      } else if ( floxel.mCluster < kSmallClusterScore ) {
-        final float f = floxel.mCluster/(float)kSmallClusterScore; 
-        if ( strength < 0.0f ) {
-          strength *= 1.0f + kSmallClusterHuntBoost*(1.0f - f);
-        } else {
-          strength *= f;
+      
+      // hunting and fleeing terms are applied to the other populations
+      for ( int otherType = 0 ; otherType < mNumFloxelTypes ; otherType++ ) {
+        if ( otherType == type ) continue;
+        
+        float strength = mHuntingStrengths[type][otherType];
+        if ( state[index] == Floxel.SPLATTED ) {
+          strength = Math.max(strength, kSplatRepulsionStrength);
+        } else if ( cluster[index] < kSmallClusterScore ) {
+          final float f = cluster[index]/(float)kSmallClusterScore; 
+          if ( strength < 0.0f ) {
+            strength *= 1.0f + kSmallClusterHuntBoost*(1.0f - f);
+          } else {
+            strength *= f;
+          }
         }
+  
+        final SourceAccumulator otherSources = mSources[otherType];
+        final float otherSource[] = otherSources.touch(ix, iy);
+        otherSource[ otherSources.blockOffset(ix, iy) 
+                     + jx + jy*otherSources.blockStride() ] += strength;
       }
-
-      final int otherType = 1 - floxel.mType;
-      mFlows[otherType].source()[ky][kx] += strength;
     }
     
-  } // addHuntingSources()
+  } // defineSources()
 
-  // interchange the types of the floxels
-  public void switchFloxelTypes() {
-    
-    assert( mNumFloxelTypes == 2 );
-    
-    for ( Floxel floxel : mFloxels ) {
-      floxel.mType = (byte)(1 - floxel.mType);
+  // interchange the types of the floxels (for the first two populations)
+  public void switchFloxelTypes() { swapFloxelTypes(0, 1); }
+  
+  // interchange two of the floxel types
+  public void swapFloxelTypes(int typeA, int typeB) {
+    
+    assert( typeA >= 0 && typeA < mNumFloxelTypes );
+    assert( typeB >= 0 && typeB < mNumFloxelTypes );
+    if ( typeA == typeB ) return;
+    
+    final byte types[] = mFloxels.mType;
+    final int active[] = mFloxels.active();
+    for ( int pos = mFloxels.numActive()-1 ; pos >= 0 ; pos-- ) {
+      final int index = active[pos];
+      if      ( types[index] == typeA ) types[index] = (byte)typeB;
+      else if ( types[index] == typeB ) types[index] = (byte)typeA;
     }
     
-    int numTemp = mNumActiveFloxels[0];
-    mNumActiveFloxels[0] = mNumActiveFloxels[1];
-    mNumActiveFloxels[1] = numTemp;
-    
-    int countTemp[][] = mFloxelCounts[0];
-    mFloxelCounts[0] = mFloxelCounts[1];
-    mFloxelCounts[1] = countTemp;
-
-    float huntTemp = mHuntingStrengths[0];
-    mHuntingStrengths[0] = mHuntingStrengths[1];
-    mHuntingStrengths[1] = huntTemp;
+    int numTemp = mNumActiveFloxels[typeA];
+    mNumActiveFloxels[typeA] = mNumActiveFloxels[typeB];
+    mNumActiveFloxels[typeB] = numTemp;
+    
+    int countTemp[][] = mFloxelCounts[typeA];
+    mFloxelCounts[typeA] = mFloxelCounts[typeB];
+    mFloxelCounts[typeB] = countTemp;
+    mDensity.update(mFloxelCounts);
+
+    float huntTemp[] = mHuntingStrengths[typeA];
+    mHuntingStrengths[typeA] = mHuntingStrengths[typeB];
+    mHuntingStrengths[typeB] = huntTemp;
+    for ( float hunt[] : mHuntingStrengths ) {
+      final float temp = hunt[typeA];
+      hunt[typeA] = hunt[typeB];
+      hunt[typeB] = temp;
+    }
     
-    float velTemp = mVelocityFactors[0];
-    mVelocityFactors[0] = mVelocityFactors[1];
-    mVelocityFactors[1] = velTemp;
+    float velTemp = mVelocityFactors[typeA];
+    mVelocityFactors[typeA] = mVelocityFactors[typeB];
+    mVelocityFactors[typeB] = velTemp;
     
-    Flow flowTemp = mFlows[0];
-    mFlows[0] = mFlows[1];
-    mFlows[1] = flowTemp;
+    Flow flowTemp = mFlows[typeA];
+    mFlows[typeA] = mFlows[typeB];
+    mFlows[typeB] = flowTemp;
     
-  } // switchFloxelTypes()
+  } // swapFloxelTypes()
   
   // display the floxels
   @Override
@@ -938,15 +1166,20 @@ public class Floxels extends Sprite {
     
     FloxelPainter painter = Env.painter().floxelPainter();
     
-    for ( Floxel floxel : mFloxels ) {
-      if ( floxel.mState == Floxel.State.UNUSED ||
-           floxel.mState == Floxel.State.SPLATTED ) continue;
-      painter.draw(batch, floxel, mTypeColours[floxel.mType]);
+    final byte state[] = mFloxels.mState,
+               types[] = mFloxels.mType;
+    
+    final int active[] = mFloxels.active();
+    for ( int pos = 0 ; pos < mFloxels.numActive() ; pos++ ) {
+      final int index = active[pos];
+      if ( state[index] == Floxel.SPLATTED ) continue;
+      painter.draw(batch, mFloxels, index, mTypeColours[types[index]]);
     }
     
-    for ( Floxel floxel : mFloxels ) {
-      if ( floxel.mState != Floxel.State.SPLATTED ) continue;
-      painter.draw(batch, floxel, mTypeColours[floxel.mType]);
+    final int splatted[] = mFloxels.inState(Floxel.SPLATTED);
+    for ( int pos = 0 ; pos < mFloxels.numInState(Floxel.SPLATTED) ; pos++ ) {
+      final int index = splatted[pos];
+      painter.draw(batch, mFloxels, index, mTypeColours[types[index]]);
     }
     
   } // Sprite.draw()
@@ -46,6 +46,15 @@ public class FloxelsStory extends Story {
                              kFleeStrengthResign   = 0.5f;
   static private final int   kFleeResignNum        = 10;
 
+  // if true then the populations' flows are solved at the same time
+  // (only if the platform provides more than one thread)
+  static private final boolean kSolveFlowsConcurrently = true;
+
+  // if true then the flows are solved in the background while the floxels
+  // move, with each new solution taking effect at the start of the next tick
+  // (only if the platform provides more than one thread)
+  static private final boolean kPipelineFlowSolves = true;
+
   // seconds until various events occur
   static private final float kIntroDelay          = 0.5f,
                              kRestartDelay        = 2.0f,
@@ -56,6 +65,7 @@ public class FloxelsStory extends Story {
   // references to some specific objects
   private Background   mBackground;
   private Flow         mFlows[];
+  private SourceStamps mSourceStamps;
   private Floxels      mFloxels;
   private Maze         mMaze;
   private VentControl  mVentControls[];
@@ -91,10 +101,28 @@ public class FloxelsStory extends Story {
   // check whether the 'back' button has been pressed
   private boolean mQuitTriggered;
   
+  // whether the flows are being solved in the background
+  private boolean mPipelineSolves;
+  
+  // the flows' background solve (or null if there isn't one running)
+  private TaskPool.Job mSolveJob;
+  
+  // job for solving each population's flow on its own thread
+  private final TaskPool.Task mSolveTask = new TaskPool.Task() {
+    public void run(int part) { mFlows[part].solve(); }
+  };
+  
+  // job for the background part of each population's flow solve
+  private final TaskPool.Task mSolvePreparedTask = new TaskPool.Task() {
+    public void run(int part) { mFlows[part].solvePrepared(); }
+  };
+  
   // constructor
   public FloxelsStory() {
 
     mLevel = -1;
+    mPipelineSolves = false;
+    mSolveJob = null;
 
   } // constructor
 
@@ -104,6 +132,9 @@ public class FloxelsStory extends Story {
 
     Story newStory = null;
     
+    // pick up the flow solutions from the last tick
+    finishFlows();
+    
     // process the story event list
     for ( Iterator<StoryEvent> it = storyEvents.iterator() ; it.hasNext() ; ) {
       StoryEvent event = it.next();
@@ -279,27 +310,60 @@ public class FloxelsStory extends Story {
   } // updateHuntFactors()
   
   // bring the flow fields up-to-date 
+  // (the other sprites' source terms are collected as a batch of stamps,
+  //  which are then added to all of the flows in one go)
   private void updateFlows(SpriteManager spriteManager) {
 
-    mFloxels.defineFlockingSources();
-    mFloxels.addHuntingSources();
-
+    mSourceStamps.clear();
     for ( Sprite s : spriteManager.list() ) {
       if ( s instanceof SourceTerm ) {
         SourceTerm st = (SourceTerm)s;
         for ( int type = 0 ; type < kNumTypes ; type++ ) {
-          Flow flow = mFlows[type];
-          st.addToSource(type, flow.source(), flow.refineFactor());
+          st.addStamps(type, mSourceStamps);
         }
       }
     }
 
+    mFloxels.defineSources();
+    mSourceStamps.apply(mFlows);
+
     for ( VentControl v : mVentControls ) v.advance();
     
-    for ( Flow flow : mFlows ) flow.solve();
+    solveFlows();
     
   } // updateFlows()
 
+  // produce new flow solutions (in parallel if possible) 
+  // (if the solves are pipelined then they are only started here, and the
+  //  solutions are not used until finishFlows() is called on the next tick)
+  private void solveFlows() {
+    
+    assert( mSolveJob == null );
+    
+    if ( mPipelineSolves ) {
+      for ( Flow flow : mFlows ) flow.prepareSolve();
+      mSolveJob = Env.taskPool().start(mSolvePreparedTask, mFlows.length);
+    } else if ( kSolveFlowsConcurrently && Env.taskPool().numThreads() > 1 ) {
+      Env.taskPool().run(mSolveTask, mFlows.length);
+    } else {
+      for ( Flow flow : mFlows ) flow.solve();
+    }
+    
+  } // solveFlows()
+
+  // wait for the flows' background solve and switch to the new solutions
+  // (nothing else should touch the flows' walls or source terms until this
+  //  has been called)
+  private void finishFlows() {
+    
+    if ( mSolveJob == null ) return;
+    
+    Env.taskPool().finish(mSolveJob);
+    mSolveJob = null;
+    for ( Flow flow : mFlows ) flow.publishSolution();
+    
+  } // finishFlows()
+
   // tweak the difficulty for the level
   private void setLevelDifficulty() {
 
@@ -369,13 +433,20 @@ public class FloxelsStory extends Story {
     mFrameRate = new FrameRate();
     spriteManager.addSprite(mFrameRate);
     
+    mPipelineSolves = ( kPipelineFlowSolves && 
+                        Env.taskPool().numThreads() > 1 );
+    
     mFlows = new Flow[kNumTypes];
     for ( int k = 0 ; k < mFlows.length ; k++ ) {
       mFlows[k] = new Flow(Env.numTilesX(), Env.numTilesY(), 4);
+      mFlows[k].setDoubleBuffered(mPipelineSolves);
       prepareFlow(mFlows[k], mMaze.data());
       mFlows[k].reset();
       mFlows[k].solve();
     }
+    mSourceStamps = new SourceStamps(mFlows[0].gridXSize(), 
+                                     mFlows[0].gridYSize(),
+                                     mFlows[0].refineFactor());
     
     mFloxels = new Floxels(mFlows);
     spriteManager.addSprite(mFloxels);
@@ -420,6 +491,7 @@ public class FloxelsStory extends Story {
         walls[Env.EAST]  = ( maze.vertWall(ix+1, iy)  ? inFlow : Flow.OPEN );
       }
     }
+    flow.wallsChanged();
     
   } // prepareFlow()
   
@@ -0,0 +1,121 @@
+/*
+ *  KillGrid.java
+ *  Copyright (c) 2016 Simon Hern
+ *  Contact: dishmoth@yahoo.co.uk, dishmoth.com, github.com/dishmoth
+ */
+
+package com.dishmoth.floxels;
+
+import java.util.Arrays;
+
+// utility for detecting collisions between particles of different types
+// (each cell of a fine grid remembers the strongest attacker in it, and a
+//  particle is beaten if it lands in a cell held by a stronger particle of
+//  another type)
+// (cells are stamped with the round in which they were last written, so
+//  starting a new round does not need the whole grid to be cleared)
+public class KillGrid {
+
+  // how much the grid is subdivided compared to the base grid
+  private final int mSubdivisions;
+
+  // dimensions of the grid (one more cell than needed in each direction,
+  // since positions are shifted by the random offsets)
+  private final int mXSize,
+                    mYSize;
+
+  // the grid, as pairs of (round, strength*mMaxTypes + type) for each cell
+  // indexed 2*(ix + iy*mXSize) (a cell is empty unless its round matches)
+  private final int mCells[];
+
+  // number of different particle types that the cells can encode
+  private final int mMaxTypes;
+
+  // number of the current round (cells from other rounds are empty)
+  private int mRound;
+
+  // offset applied to positions during the current round
+  private float mOffsetX,
+                mOffsetY;
+
+  // constructor
+  public KillGrid(int baseXSize, int baseYSize, int subdivisions,
+                  int maxTypes) {
+
+    assert( baseXSize > 0 && baseYSize > 0 );
+    assert( subdivisions >= 1 );
+    assert( maxTypes > 0 );
+
+    mSubdivisions = subdivisions;
+    mXSize = mSubdivisions*baseXSize + 1;
+    mYSize = mSubdivisions*baseYSize + 1;
+    mMaxTypes = maxTypes;
+
+    mCells = new int[2*mXSize*mYSize];
+    mRound = 0;
+
+  } // constructor
+
+  // empty the grid ready for a new set of attackers
+  // (the offsets, which are in units of grid cells and less than one,
+  //  shift the cell boundaries so that they change from round to round)
+  public void reset(float offsetX, float offsetY) {
+
+    assert( offsetX >= 0.0f && offsetX < 1.0f );
+    assert( offsetY >= 0.0f && offsetY < 1.0f );
+
+    mOffsetX = offsetX;
+    mOffsetY = offsetY;
+
+    if ( ++mRound == Integer.MAX_VALUE ) {
+      Arrays.fill(mCells, 0);
+      mRound = 1;
+    }
+
+  } // reset()
+
+  // index into mCells for a position (in base grid units)
+  private int cell(float x, float y) {
+
+    final int ix = (int)(x*mSubdivisions + mOffsetX),
+              iy = (int)(y*mSubdivisions + mOffsetY);
+    assert( ix >= 0 && ix < mXSize );
+    assert( iy >= 0 && iy < mYSize );
+    return 2*(ix + iy*mXSize);
+
+  } // cell()
+
+  // record a particle that can attack others
+  // (only the strongest attacker in each cell is kept, or the first if
+  //  there is a tie)
+  public void addAttacker(float x, float y, int strength, int type) {
+
+    assert( strength >= 0 );
+    assert( type >= 0 && type < mMaxTypes );
+
+    final int c = cell(x, y);
+    final int value = strength*mMaxTypes + type;
+    if ( mCells[c] != mRound || value/mMaxTypes > mCells[c+1]/mMaxTypes ) {
+      mCells[c]   = mRound;
+      mCells[c+1] = value;
+    }
+
+  } // addAttacker()
+
+  // the type of the attacker that beats a particle, or -1 if it survives
+  // (the particle is beaten by the strongest attacker in its cell, if that
+  //  is of a different type and at least as strong)
+  public int attackerType(float x, float y, int strength, int type) {
+
+    final int c = cell(x, y);
+    if ( mCells[c] != mRound ) return -1;
+
+    final int value = mCells[c+1];
+    final int attackStrength = value/mMaxTypes,
+              attackType     = value%mMaxTypes;
+    return ( attackType != type && strength <= attackStrength )
+           ? attackType : -1;
+
+  } // attackerType()
+
+} // class KillGrid
@@ -153,7 +153,7 @@ public class MazeData {
         }
       }
     }
-    Collections.shuffle(deltas);
+    Collections.shuffle(deltas, Env.random(Env.RANDOM_MAZE));
   
   } // collectDifferences()
 
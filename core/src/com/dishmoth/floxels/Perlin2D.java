@@ -95,6 +95,78 @@ public class Perlin2D {
     
   } // Function.value()
   
+  // evaluate the noise at a row of positions (xs[k],y) into values[k]
+  // (this gives exactly the same results as value(), but the work that 
+  //  depends only on y is done once for the whole row, and the gradients 
+  //  are only looked up again when a position is in a different cell)
+  public void valueRow(float xs[], float y, float values[]) {
+    
+    assert( values.length >= xs.length );
+    valueRow(xs, y, values, 0);
+    
+  } // valueRow()
+  
+  // evaluate the noise on a grid of positions (xs[i],ys[j]) into 
+  // values[i + j*xs.length]
+  public void valueGrid(float xs[], float ys[], float values[]) {
+    
+    assert( values.length >= xs.length*ys.length );
+    for ( int j = 0 ; j < ys.length ; j++ ) {
+      valueRow(xs, ys[j], values, j*xs.length);
+    }
+    
+  } // valueGrid()
+  
+  // evaluate the noise along a row, starting at an offset into values[]
+  private void valueRow(float xs[], float y, float values[], int offset) {
+    
+    final int iy = (int)Math.floor(y);
+    final float fy = y - iy;
+    final float ty = (6*fy*fy - 15*fy + 10)*fy*fy*fy;
+    final int row0 = Env.fold(iy, mPeriod),
+              row1 = Env.fold(iy+1, mPeriod);
+    
+    // gradients at the corners of the current cell
+    int ixCell = 0;
+    boolean haveCell = false;
+    float g00x = 0, g00y = 0, g01x = 0, g01y = 0,
+          g10x = 0, g10y = 0, g11x = 0, g11y = 0;
+    
+    for ( int k = 0 ; k < xs.length ; k++ ) {
+      final float x = xs[k];
+      final int ix = (int)Math.floor(x);
+      
+      if ( !haveCell || ix != ixCell ) {
+        final int a0 = mIndex[ Env.fold(ix, mPeriod) ],
+                  a1 = mIndex[ Env.fold(ix+1, mPeriod) ];
+        final int b00 = kNumDims*mIndex[ Env.fold(a0 + row0, mPeriod) ],
+                  b01 = kNumDims*mIndex[ Env.fold(a0 + row1, mPeriod) ],
+                  b10 = kNumDims*mIndex[ Env.fold(a1 + row0, mPeriod) ],
+                  b11 = kNumDims*mIndex[ Env.fold(a1 + row1, mPeriod) ];
+        g00x = mGradient[b00];  g00y = mGradient[b00+1];
+        g01x = mGradient[b01];  g01y = mGradient[b01+1];
+        g10x = mGradient[b10];  g10y = mGradient[b10+1];
+        g11x = mGradient[b11];  g11y = mGradient[b11+1];
+        ixCell = ix;
+        haveCell = true;
+      }
+      
+      final float fx = x - ix;
+      final float tx = (6*fx*fx - 15*fx + 10)*fx*fx*fx;
+      
+      final float v00 = fx*g00x     + fy*g00y,
+                  v01 = fx*g01x     + (fy-1)*g01y,
+                  v10 = (fx-1)*g10x + fy*g10y,
+                  v11 = (fx-1)*g11x + (fy-1)*g11y;
+      
+      final float v0 = (1-ty)*v00 + ty*v01,
+                  v1 = (1-ty)*v10 + ty*v11;
+      
+      values[offset + k] = (1-tx)*v0 + tx*v1;
+    }
+    
+  } // valueRow()
+  
   // the noise contribution from an individual grid point
   private float gridVal(int ix, int iy, float dx, float dy) {
     
@@ -100,6 +100,108 @@ public class Perlin3D {
     
   } // Function.value()
   
+  // evaluate the noise at a row of positions (xs[k],y,z) into values[k]
+  // (this gives exactly the same results as value(), but the work that 
+  //  depends only on y and z is done once for the whole row, and the 
+  //  gradients are only looked up again when a position is in a 
+  //  different cell)
+  public void valueRow(float xs[], float y, float z, float values[]) {
+    
+    assert( values.length >= xs.length );
+    valueRow(xs, y, z, values, 0);
+    
+  } // valueRow()
+  
+  // evaluate the noise on a grid of positions (xs[i],ys[j],z) into 
+  // values[i + j*xs.length]
+  public void valueGrid(float xs[], float ys[], float z, float values[]) {
+    
+    assert( values.length >= xs.length*ys.length );
+    for ( int j = 0 ; j < ys.length ; j++ ) {
+      valueRow(xs, ys[j], z, values, j*xs.length);
+    }
+    
+  } // valueGrid()
+  
+  // evaluate the noise along a row, starting at an offset into values[]
+  private void valueRow(float xs[], float y, float z, 
+                        float values[], int offset) {
+    
+    final int iy = (y >= 0) ? (int)y : (int)Math.floor(y),
+              iz = (z >= 0) ? (int)z : (int)Math.floor(z);
+    
+    final float fy = y - iy,
+                fz = z - iz;
+    
+    final float ty = (3.0f - 2.0f*fy)*fy*fy,
+                tz = (3.0f - 2.0f*fz)*fz*fz;
+    
+    // gradients at the corners of the current cell
+    int ixCell = 0;
+    boolean haveCell = false;
+    float g000x = 0, g000y = 0, g000z = 0,  g001x = 0, g001y = 0, g001z = 0,
+          g010x = 0, g010y = 0, g010z = 0,  g011x = 0, g011y = 0, g011z = 0,
+          g100x = 0, g100y = 0, g100z = 0,  g101x = 0, g101y = 0, g101z = 0,
+          g110x = 0, g110y = 0, g110z = 0,  g111x = 0, g111y = 0, g111z = 0;
+    
+    final float gr[] = mGradient;
+    for ( int k = 0 ; k < xs.length ; k++ ) {
+      final float x = xs[k];
+      final int ix = (x >= 0) ? (int)x : (int)Math.floor(x);
+      
+      if ( !haveCell || ix != ixCell ) {
+        final int a0  = mIndex[ ix & 0xFF ],
+                  a1  = mIndex[ (ix+1) & 0xFF ];
+        final int b00 = mIndex[ (a0 + iy) & 0xFF ],
+                  b01 = mIndex[ (a0 + iy+1) & 0xFF ],
+                  b10 = mIndex[ (a1 + iy) & 0xFF ],
+                  b11 = mIndex[ (a1 + iy+1) & 0xFF ];
+        int c;
+        c = kNumDims*mIndex[ (b00 + iz) & 0xFF ];
+        g000x = gr[c];  g000y = gr[c+1];  g000z = gr[c+2];
+        c = kNumDims*mIndex[ (b00 + iz+1) & 0xFF ];
+        g001x = gr[c];  g001y = gr[c+1];  g001z = gr[c+2];
+        c = kNumDims*mIndex[ (b01 + iz) & 0xFF ];
+        g010x = gr[c];  g010y = gr[c+1];  g010z = gr[c+2];
+        c = kNumDims*mIndex[ (b01 + iz+1) & 0xFF ];
+        g011x = gr[c];  g011y = gr[c+1];  g011z = gr[c+2];
+        c = kNumDims*mIndex[ (b10 + iz) & 0xFF ];
+        g100x = gr[c];  g100y = gr[c+1];  g100z = gr[c+2];
+        c = kNumDims*mIndex[ (b10 + iz+1) & 0xFF ];
+        g101x = gr[c];  g101y = gr[c+1];  g101z = gr[c+2];
+        c = kNumDims*mIndex[ (b11 + iz) & 0xFF ];
+        g110x = gr[c];  g110y = gr[c+1];  g110z = gr[c+2];
+        c = kNumDims*mIndex[ (b11 + iz+1) & 0xFF ];
+        g111x = gr[c];  g111y = gr[c+1];  g111z = gr[c+2];
+        ixCell = ix;
+        haveCell = true;
+      }
+      
+      final float fx = x - ix;
+      final float tx = (3.0f - 2.0f*fx)*fx*fx;
+      
+      final float v000 = fx*g000x     + fy*g000y     + fz*g000z,
+                  v001 = fx*g001x     + fy*g001y     + (fz-1)*g001z,
+                  v010 = fx*g010x     + (fy-1)*g010y + fz*g010z,
+                  v011 = fx*g011x     + (fy-1)*g011y + (fz-1)*g011z,
+                  v100 = (fx-1)*g100x + fy*g100y     + fz*g100z,
+                  v101 = (fx-1)*g101x + fy*g101y     + (fz-1)*g101z,
+                  v110 = (fx-1)*g110x + (fy-1)*g110y + fz*g110z,
+                  v111 = (fx-1)*g111x + (fy-1)*g111y + (fz-1)*g111z;
+      
+      final float v00 = (1-tz)*v000 + tz*v001,
+                  v01 = (1-tz)*v010 + tz*v011,
+                  v10 = (1-tz)*v100 + tz*v101,
+                  v11 = (1-tz)*v110 + tz*v111;
+      
+      final float v0 = (1-ty)*v00 + ty*v01,
+                  v1 = (1-ty)*v10 + ty*v11;
+      
+      values[offset + k] = (1-tx)*v0 + tx*v1;
+    }
+    
+  } // valueRow()
+  
   // the noise contribution from an individual grid point
   private float gridVal(int ix, int iy, int iz, 
                         float dx, float dy, float dz) {
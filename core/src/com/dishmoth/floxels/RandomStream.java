@@ -0,0 +1,118 @@
+/*
+ *  RandomStream.java
+ *  Copyright (c) 2016 Simon Hern
+ *  Contact: dishmoth@yahoo.co.uk, dishmoth.com, github.com/dishmoth
+ */
+
+package com.dishmoth.floxels;
+
+import java.util.Random;
+
+// a sequence of random numbers that is only ever used by one thread
+// (this replaces the generator inside java.util.Random, which updates its
+//  seed atomically, with a faster one (xoshiro128**) that has no locking,
+//  while still working anywhere that a java.util.Random is wanted)
+// (the generator only shifts, adds and multiplies by small numbers, so it
+//  gives the same sequence under GWT as it does in Java)
+public class RandomStream extends Random {
+
+  private static final long serialVersionUID = 1L;
+
+  // state of the generator (never all zero)
+  private int mState0,
+              mState1,
+              mState2,
+              mState3;
+
+  // constructor (seeded from the clock)
+  public RandomStream() {
+
+    super();
+
+  } // constructor
+
+  // constructor (the same seed always gives the same sequence)
+  public RandomStream(long seed) {
+
+    super(seed);
+
+  } // constructor
+
+  // restart the sequence
+  // (the seed is spread over the state using SplitMix64, so that similar
+  //  seeds still give unrelated sequences)
+  @Override
+  public void setSeed(long seed) {
+
+    long z = seed;
+    for ( int k = 0 ; k < 2 ; k++ ) {
+      z += 0x9E3779B97F4A7C15L;
+      long x = z;
+      x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+      x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+      x = x ^ (x >>> 31);
+      if ( k == 0 ) {
+        mState0 = (int)x;
+        mState1 = (int)(x >>> 32);
+      } else {
+        mState2 = (int)x;
+        mState3 = (int)(x >>> 32);
+      }
+    }
+    if ( (mState0 | mState1 | mState2 | mState3) == 0 ) mState0 = 1;
+
+  } // setSeed()
+
+  // the next random bits (all other values are built from these)
+  @Override
+  protected int next(int bits) {
+
+    final int s1 = mState1,
+              t  = s1 << 9;
+    final int result = Integer.rotateLeft(s1*5, 7)*9;
+
+    mState2 ^= mState0;
+    mState3 ^= s1;
+    mState1 ^= mState2;
+    mState0 ^= mState3;
+    mState2 ^= t;
+    mState3 = Integer.rotateLeft(mState3, 11);
+
+    return ( result >>> (32-bits) );
+
+  } // next()
+
+  // reseed another stream from this one, giving it an independent sequence
+  // (so a job can hand each of its parts its own stream, and the parts
+  //  get the same numbers whichever thread runs them)
+  public void split(RandomStream child) {
+
+    assert( child != null && child != this );
+    child.setSeed( nextLong() );
+
+  } // split()
+
+  // a new stream seeded from this one
+  public RandomStream split() {
+
+    return new RandomStream( nextLong() );
+
+  } // split()
+
+  // random value in range [a,b]
+  public float nextFloat(float a, float b) {
+
+    return ( a + (b-a)*nextFloat() );
+
+  } // nextFloat()
+
+  // random value in range [a,b] (or [b,a])
+  public int nextInt(int a, int b) {
+
+    if ( a > b )      return ( b + nextInt(a-b+1) );
+    else if ( a < b ) return ( a + nextInt(b-a+1) );
+    else              return a;
+
+  } // nextInt()
+
+} // class RandomStream
@@ -285,29 +285,31 @@ public class Sounds {
   // update counters for death and capture sounds
   private void advanceSpecial() {
         
+    final RandomStream random = Env.random(Env.RANDOM_SOUND);
+    
     if ( mDeathDelay > 0 ) {
       mDeathDelay -= 1;
     } else if ( mDeathCount[0] > 0 || mDeathCount[1] > 0 ) {
-      mDeathDelay = Env.randomInt(kDeathTicksMin, kDeathTicksMax);
+      mDeathDelay = random.nextInt(kDeathTicksMin, kDeathTicksMax);
   
       final int type  = ( (mDeathCount[0] > mDeathCount[1]) ? 0 : 1 ),
                 index = mDeathNextIndex[type];
       final int id = ( type==0 ? GRUNT_0 : SQUEAK_0 ) + index;
       play(id);
       
-      mDeathNextIndex[type] = (index + Env.randomInt(1,2)) % kNumDeathSounds;
+      mDeathNextIndex[type] = (index + random.nextInt(1,2)) % kNumDeathSounds;
       mDeathCount[0] = mDeathCount[1] = 0;
     }
     
     if ( mCaptureDelay > 0 ) {
       mCaptureDelay -= 1;
     } else if ( mCaptureCount > 0 ){
-      mCaptureDelay = Env.randomInt(kCaptureTicksMin, kCaptureTicksMax);
+      mCaptureDelay = random.nextInt(kCaptureTicksMin, kCaptureTicksMax);
       
       final int id = POP_0 + mCaptureNextIndex;
       play(id);
       
-      mCaptureNextIndex = (mCaptureNextIndex + Env.randomInt(1,2)) 
+      mCaptureNextIndex = (mCaptureNextIndex + random.nextInt(1,2)) 
                           % kNumCaptureSounds;
       mCaptureCount = 0;
     }
@@ -319,9 +321,9 @@ public class Sounds {
     
     if ( !mAvailable || mMuted ) return;
 
-    assert( killCount.length == 2 );
-    for ( int k = 0 ; k < 2 ; k++ ) {
-      mDeathCount[k] += killCount[k];
+    // (any populations beyond the first two share the second one's sounds)
+    for ( int k = 0 ; k < killCount.length ; k++ ) {
+      mDeathCount[Math.min(k, 1)] += killCount[k];
     }
     
   } // playDeathSounds()
@@ -0,0 +1,200 @@
+/*
+ *  SourceAccumulator.java
+ *  Copyright (c) 2016 Simon Hern
+ *  Contact: dishmoth@yahoo.co.uk, dishmoth.com, github.com/dishmoth
+ */
+
+package com.dishmoth.floxels;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+// source terms for a flow, as they are built up by the game
+// (the values are either held in a dense array, laid out like the flow's
+//  top grid, or, for a sparse flow, in a separate array for each block of
+//  the base grid that has been written to; either way a list is kept of
+//  those blocks, so that clearing or adding up the values only needs to
+//  visit them rather than every cell)
+// (code writing to a block must fetch its array using touch(), otherwise
+//  the values there will not be cleared; the cell (jx,jy) of the block is
+//  then at index blockOffset() + jx + jy*blockStride() in that array)
+public class SourceAccumulator {
+
+  // size of the base grid
+  private final int mBaseXSize,
+                    mBaseYSize;
+
+  // size of a block of the base grid in cells of the top grid
+  private final int mRefineFactor;
+
+  // size of the top grid (the x-size is also the step between rows)
+  private final int mXSize,
+                    mYSize;
+
+  // the source terms (index is x + y*mXSize), or null if sparse
+  private final float mValues[];
+
+  // the source terms for each block if sparse (index is x + y*mBaseXSize),
+  // with each block's values laid out row by row (null if not written to)
+  private final float mBlocks[][];
+
+  // block arrays not currently in use (all zero), if sparse
+  private final ArrayList<float[]> mSpareBlocks;
+
+  // values for the blocks that have not been written to, if sparse
+  // (always zero, see block())
+  private final float mZeroBlock[];
+
+  // whether each block of the base grid has been written to since the last
+  // clear (index is x + y*mBaseXSize)
+  private final boolean mTouched[];
+
+  // the blocks that have been written to (the first mNumTouched entries)
+  private final int mTouchedBlocks[];
+  private int       mNumTouched;
+
+  // constructor
+  public SourceAccumulator(int baseXSize, int baseYSize, int refineFactor,
+                           boolean sparse) {
+
+    assert( baseXSize > 0 && baseYSize > 0 );
+    assert( refineFactor > 0 );
+
+    mBaseXSize = baseXSize;
+    mBaseYSize = baseYSize;
+    mRefineFactor = refineFactor;
+    mXSize = mRefineFactor*mBaseXSize;
+    mYSize = mRefineFactor*mBaseYSize;
+
+    if ( sparse ) {
+      mValues = null;
+      mBlocks = new float[mBaseXSize*mBaseYSize][];
+      mSpareBlocks = new ArrayList<float[]>();
+      mZeroBlock = new float[mRefineFactor*mRefineFactor];
+    } else {
+      mValues = new float[mXSize*mYSize];
+      mBlocks = null;
+      mSpareBlocks = null;
+      mZeroBlock = null;
+    }
+    mTouched = new boolean[mBaseXSize*mBaseYSize];
+    mTouchedBlocks = new int[mBaseXSize*mBaseYSize];
+    mNumTouched = 0;
+
+  } // constructor
+
+  // access to the source terms (flattened, index is x + y*xSize())
+  // (null if the values are kept block by block)
+  public float[] values() { return mValues; }
+
+  // whether the values are kept block by block rather than in values()
+  public boolean sparse() { return ( mValues == null ); }
+
+  // size of the grid (the x-size is also the step between rows)
+  public int xSize() { return mXSize; }
+  public int ySize() { return mYSize; }
+
+  // record that the values in a block of the base grid are being changed,
+  // and return the array that holds them (see blockOffset())
+  public float[] touch(int kx, int ky) {
+
+    assert( kx >= 0 && kx < mBaseXSize );
+    assert( ky >= 0 && ky < mBaseYSize );
+
+    final int b = kx + ky*mBaseXSize;
+    if ( !mTouched[b] ) {
+      mTouched[b] = true;
+      mTouchedBlocks[mNumTouched++] = b;
+      if ( mBlocks != null ) {
+        final int last = mSpareBlocks.size() - 1;
+        mBlocks[b] = ( last >= 0 )
+                     ? mSpareBlocks.remove(last)
+                     : new float[mRefineFactor*mRefineFactor];
+      }
+    }
+    return ( mBlocks != null ) ? mBlocks[b] : mValues;
+
+  } // touch()
+
+  // whether a block of the base grid has been written to since the last
+  // clear (if not then all of its values are zero)
+  public boolean touched(int kx, int ky) {
+
+    return mTouched[kx + ky*mBaseXSize];
+
+  } // touched()
+
+  // the array holding the values in a block of the base grid, for reading
+  // only (see blockOffset())
+  public float[] block(int kx, int ky) {
+
+    if ( mBlocks == null ) return mValues;
+    final float block[] = mBlocks[kx + ky*mBaseXSize];
+    return ( block != null ) ? block : mZeroBlock;
+
+  } // block()
+
+  // index of a block's top-left cell in the array holding it
+  public int blockOffset(int kx, int ky) {
+
+    return ( mBlocks != null ) ? 0 : (kx + ky*mXSize)*mRefineFactor;
+
+  } // blockOffset()
+
+  // step between the rows of a block in the array holding it
+  public int blockStride() {
+
+    return ( mBlocks != null ) ? mRefineFactor : mXSize;
+
+  } // blockStride()
+
+  // set all of the values to zero
+  public void clear() {
+
+    for ( int n = 0 ; n < mNumTouched ; n++ ) {
+      final int b = mTouchedBlocks[n];
+      if ( mBlocks != null ) {
+        Arrays.fill(mBlocks[b], 0.0f);
+        mSpareBlocks.add(mBlocks[b]);
+        mBlocks[b] = null;
+      } else {
+        final int k00 = firstCell(b);
+        for ( int iy = 0 ; iy < mRefineFactor ; iy++ ) {
+          final int k0 = k00 + iy*mXSize;
+          Arrays.fill(mValues, k0, k0 + mRefineFactor, 0.0f);
+        }
+      }
+      mTouched[b] = false;
+    }
+    mNumTouched = 0;
+
+  } // clear()
+
+  // total of all the values
+  public double sum() {
+
+    double sum = 0.0;
+    final int stride = blockStride();
+    for ( int n = 0 ; n < mNumTouched ; n++ ) {
+      final int b = mTouchedBlocks[n];
+      final float values[] = ( mBlocks != null ) ? mBlocks[b] : mValues;
+      final int k00 = ( mBlocks != null ) ? 0 : firstCell(b);
+      for ( int iy = 0 ; iy < mRefineFactor ; iy++ ) {
+        final int k0 = k00 + iy*stride;
+        for ( int k = k0 ; k < k0 + mRefineFactor ; k++ ) sum += values[k];
+      }
+    }
+    return sum;
+
+  } // sum()
+
+  // index of the top-left cell of a block of the base grid in values()
+  private int firstCell(int b) {
+
+    final int kx = b % mBaseXSize,
+              ky = b / mBaseXSize;
+    return (kx + ky*mXSize)*mRefineFactor;
+
+  } // firstCell()
+
+} // class SourceAccumulator
@@ -0,0 +1,46 @@
+/*
+ *  SourceKernel.java
+ *  Copyright (c) 2016 Simon Hern
+ *  Contact: dishmoth@yahoo.co.uk, dishmoth.com, github.com/dishmoth
+ */
+
+package com.dishmoth.floxels;
+
+// weights for spreading a source term over a square of grid cells
+// (a kernel is worked out once, for a particular radius and refinement of
+//  the grid, and is then stamped onto the source terms wherever it is
+//  needed, see SourceStamps)
+public class SourceKernel {
+
+  // a kernel that puts all of a source term into a single cell
+  static public final SourceKernel POINT = new SourceKernel(0, 
+                                                            new float[]{ 1.0f });
+
+  // the kernel covers cells up to this many either side of its centre
+  private final int mRadius;
+
+  // weight for each cell, indexed (dx+mRadius) + (dy+mRadius)*size()
+  private final float mWeights[];
+
+  // constructor (the weights array is kept, not copied)
+  public SourceKernel(int radius, float weights[]) {
+
+    assert( radius >= 0 );
+    assert( weights != null && 
+            weights.length == (2*radius+1)*(2*radius+1) );
+
+    mRadius = radius;
+    mWeights = weights;
+
+  } // constructor
+
+  // how many cells the kernel reaches either side of its centre
+  public int radius() { return mRadius; }
+
+  // width (and height) of the kernel in cells
+  public int size() { return 2*mRadius+1; }
+
+  // weights for the cells (read-only, see mWeights for the indexing)
+  public float[] weights() { return mWeights; }
+
+} // class SourceKernel
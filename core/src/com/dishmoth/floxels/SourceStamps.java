@@ -0,0 +1,151 @@
+/*
+ *  SourceStamps.java
+ *  Copyright (c) 2016 Simon Hern
+ *  Contact: dishmoth@yahoo.co.uk, dishmoth.com, github.com/dishmoth
+ */
+
+package com.dishmoth.floxels;
+
+import java.util.Arrays;
+
+// a batch of source terms for the flows, each a kernel of weights scaled by
+// a strength and centred on a cell of the top grid
+// (the objects implementing SourceTerm add their stamps to the batch, and
+//  then all of them are written to the flows together by apply())
+public class SourceStamps {
+
+  // initial number of stamps that the batch has room for
+  static private final int kInitialCapacity = 16;
+
+  // size of the top grid of the flows
+  private final int mXSize,
+                    mYSize;
+
+  // refinement factor of the top grid of the flows
+  private final int mRefineFactor;
+
+  // details of each stamp (the first mNumStamps entries): which flow it is
+  // for, its kernel, the cell it is centred on, and its strength
+  private int          mTypes[];
+  private SourceKernel mKernels[];
+  private int          mCellX[],
+                       mCellY[];
+  private float        mStrengths[];
+  private int          mNumStamps;
+
+  // constructor
+  public SourceStamps(int xSize, int ySize, int refineFactor) {
+
+    assert( xSize > 0 && ySize > 0 );
+    assert( refineFactor > 0 );
+
+    mXSize = xSize;
+    mYSize = ySize;
+    mRefineFactor = refineFactor;
+
+    mTypes     = new int[kInitialCapacity];
+    mKernels   = new SourceKernel[kInitialCapacity];
+    mCellX     = new int[kInitialCapacity];
+    mCellY     = new int[kInitialCapacity];
+    mStrengths = new float[kInitialCapacity];
+    mNumStamps = 0;
+
+  } // constructor
+
+  // size of the top grid of the flows
+  public int xSize() { return mXSize; }
+  public int ySize() { return mYSize; }
+
+  // refinement factor of the top grid of the flows
+  public int refineFactor() { return mRefineFactor; }
+
+  // number of stamps in the batch
+  public int numStamps() { return mNumStamps; }
+
+  // remove all of the stamps
+  public void clear() { 
+    
+    Arrays.fill(mKernels, 0, mNumStamps, null);
+    mNumStamps = 0;
+    
+  } // clear()
+
+  // add a stamp for one population's flow, centred on a cell of the top
+  // grid (any part of the kernel that falls off the grid is ignored)
+  public void add(int floxelType, SourceKernel kernel, int ix, int iy,
+                  float strength) {
+
+    assert( floxelType >= 0 );
+    assert( kernel != null );
+
+    if ( mNumStamps == mTypes.length ) {
+      final int capacity = 2*mNumStamps;
+      mTypes     = Arrays.copyOf(mTypes, capacity);
+      mKernels   = Arrays.copyOf(mKernels, capacity);
+      mCellX     = Arrays.copyOf(mCellX, capacity);
+      mCellY     = Arrays.copyOf(mCellY, capacity);
+      mStrengths = Arrays.copyOf(mStrengths, capacity);
+    }
+
+    mTypes[mNumStamps]     = floxelType;
+    mKernels[mNumStamps]   = kernel;
+    mCellX[mNumStamps]     = ix;
+    mCellY[mNumStamps]     = iy;
+    mStrengths[mNumStamps] = strength;
+    mNumStamps++;
+
+  } // add()
+
+  // add all of the stamps to the source terms of the flows (indexed by 
+  // population)
+  public void apply(Flow flows[]) {
+
+    for ( int n = 0 ; n < mNumStamps ; n++ ) {
+      final Flow flow = flows[mTypes[n]];
+      assert( flow.gridXSize() == mXSize && flow.gridYSize() == mYSize );
+      apply(n, flow.sources());
+    }
+
+  } // apply()
+
+  // add one stamp to some source terms
+  private void apply(int n, SourceAccumulator sources) {
+
+    final SourceKernel kernel = mKernels[n];
+    final float weights[] = kernel.weights();
+    final float strength = mStrengths[n];
+    final int radius = kernel.radius(),
+              size   = kernel.size();
+
+    final int x0 = Math.max(0, mCellX[n] - radius),
+              x1 = Math.min(mXSize-1, mCellX[n] + radius),
+              y0 = Math.max(0, mCellY[n] - radius),
+              y1 = Math.min(mYSize-1, mCellY[n] + radius);
+    if ( x0 > x1 || y0 > y1 ) return;
+
+    // (the stamp is added a block of the base grid at a time, since that is
+    //  how the source terms may be stored)
+    final int stride = sources.blockStride();
+    for ( int ky = y0/mRefineFactor ; ky <= y1/mRefineFactor ; ky++ ) {
+      final int by0 = ky*mRefineFactor,
+                iy0 = Math.max(y0, by0),
+                iy1 = Math.min(y1, by0 + mRefineFactor-1);
+      for ( int kx = x0/mRefineFactor ; kx <= x1/mRefineFactor ; kx++ ) {
+        final int bx0 = kx*mRefineFactor,
+                  ix0 = Math.max(x0, bx0),
+                  ix1 = Math.min(x1, bx0 + mRefineFactor-1);
+        final float values[] = sources.touch(kx, ky);
+        final int k00 = sources.blockOffset(kx, ky) - bx0 - by0*stride;
+        for ( int iy = iy0 ; iy <= iy1 ; iy++ ) {
+          final int k0 = k00 + iy*stride,
+                    j0 = (iy - mCellY[n] + radius)*size - mCellX[n] + radius;
+          for ( int ix = ix0 ; ix <= ix1 ; ix++ ) {
+            values[k0 + ix] += weights[j0 + ix]*strength;
+          }
+        }
+      }
+    }
+
+  } // apply()
+
+} // class SourceStamps
@@ -7,8 +7,9 @@
 package com.dishmoth.floxels;
 
 // implementer contributes to the Poisson source terms 
+// (by adding stamps to a batch that is applied to all of the flows at once)
 public interface SourceTerm {
   
-  public void addToSource(int floxelType, float source[][], int refineFactor);
+  public void addStamps(int floxelType, SourceStamps stamps);
 
 } // interface SourceTerm
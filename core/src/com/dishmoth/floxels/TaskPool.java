@@ -0,0 +1,59 @@
+/*
+ *  TaskPool.java
+ *  Copyright (c) 2016 Simon Hern
+ *  Contact: dishmoth@yahoo.co.uk, dishmoth.com, github.com/dishmoth
+ */
+
+package com.dishmoth.floxels;
+
+// runs jobs that split into independent parts
+// (this version runs everything on the calling thread, which is all that
+//  GWT and single-core devices need; the desktop launcher swaps in a
+//  multi-threaded version)
+public class TaskPool {
+
+  // a job made up of parts that can be run in any order, or all at once
+  public interface Task {
+    public void run(int part);
+  } // interface TaskPool.Task
+
+  // number of threads available for running parts at the same time
+  public int numThreads() { return 1; }
+
+  // run every part of a task, returning once they are all complete
+  public void run(Task task, int numParts) {
+
+    assert( task != null );
+    assert( numParts >= 0 );
+
+    for ( int part = 0 ; part < numParts ; part++ ) task.run(part);
+
+  } // run()
+
+  // handle for a task started by start(), to be passed to finish()
+  // (this version has always finished the task by the time it is returned)
+  public static class Job {
+    public boolean done() { return true; }
+  } // class TaskPool.Job
+  
+  // a job that has already been run
+  static private final Job kDoneJob = new Job();
+  
+  // start running every part of a task in the background, returning at once
+  // (this version just runs the task before returning)
+  public Job start(Task task, int numParts) {
+    
+    run(task, numParts);
+    return kDoneJob;
+    
+  } // start()
+  
+  // wait until a job from start() is complete
+  public void finish(Job job) {
+    
+    assert( job != null );
+    assert( job.done() );
+    
+  } // finish()
+
+} // class TaskPool
@@ -17,6 +17,14 @@ public class VentControl {
   static private final float kNoiseTimeScale = 0.1f,
                              kNoiseCeiling   = 2.0f;
   
+  // the noise is worked out for each tile at time slices this far apart
+  // (in noise units, so about every 9 ticks) and interpolated in between
+  static private final float kNoiseSliceStep = 1.0f/32;
+  
+  // number of layers of noise added together (each at twice the frequency
+  // and half the amplitude of the one before)
+  static private final int kNoiseOctaves = 3;
+  
   // details of hunt effect
   static private final float kTargetRadius = 5.0f,
                              kTargetSpeed  = 2.0f;
@@ -62,6 +70,9 @@ public class VentControl {
   
   // time (seconds) until the target is changed
   private float mTrackingReset;
+  
+  // work space for trackEnemy()
+  private FloxelDensity.Peak mTrackingPeak = new FloxelDensity.Peak();
 
   // the current tracking behaviour (enumerated above)
   private int mTrackingMode;
@@ -81,6 +92,23 @@ public class VentControl {
   // noise generator for random flow
   private Perlin3D mNoise;
   
+  // noise values (before clamping) for each tile at the start and end of
+  // the current time slice (index is ix + iy*baseXSize)
+  private float mNoiseSlice0[],
+                mNoiseSlice1[];
+  
+  // which time slice the noise values are for (-1 if none yet)
+  private int mNoiseSliceIndex;
+  
+  // how far through the time slice the noise currently is (0.0 to 1.0)
+  private float mNoiseSliceFrac;
+  
+  // positions of the tile centres in noise units, for each octave, and 
+  // work space for one octave of a time slice
+  private float mNoiseXs[][],
+                mNoiseYs[][],
+                mNoiseOctave[];
+  
   // default vent setting
   static public float inFlowDefault() { return kInFlowDefault; }
   
@@ -110,6 +138,27 @@ public class VentControl {
     mNoiseTime = 0.0f;
     mNoise = new Perlin3D(Env.randomInt(10000));
     
+    final int numTiles = mFlow.baseXSize()*mFlow.baseYSize();
+    mNoiseSlice0 = new float[numTiles];
+    mNoiseSlice1 = new float[numTiles];
+    mNoiseSliceIndex = -1;
+    mNoiseSliceFrac = 0.0f;
+    
+    final int nx = mFlow.baseXSize(),
+              ny = mFlow.baseYSize();
+    mNoiseXs = new float[kNoiseOctaves][nx];
+    mNoiseYs = new float[kNoiseOctaves][ny];
+    for ( int octave = 0 ; octave < kNoiseOctaves ; octave++ ) {
+      final int scale = ( 1 << octave );
+      for ( int ix = 0 ; ix < nx ; ix++ ) {
+        mNoiseXs[octave][ix] = scale*((ix + 0.5f)/Env.numTilesX());
+      }
+      for ( int iy = 0 ; iy < ny ; iy++ ) {
+        mNoiseYs[octave][iy] = scale*((iy + 0.5f)/Env.numTilesY());
+      }
+    }
+    mNoiseOctave = new float[numTiles];
+    
   } // constructor
 
   // modify the hunting urge (0.0 => none, 1.0 => full)
@@ -135,12 +184,16 @@ public class VentControl {
     
   } // overrideTracking()
   
-  // change over teams
-  public void switchFloxelTypes() {
+  // change over teams (for the first two populations)
+  public void switchFloxelTypes() { swapFloxelTypes(0, 1); }
+  
+  // follow Floxels.swapFloxelTypes() when two floxel types are interchanged
+  public void swapFloxelTypes(int typeA, int typeB) {
     
-    mFloxelType = 1 - mFloxelType;
+    if      ( mFloxelType == typeA ) mFloxelType = typeB;
+    else if ( mFloxelType == typeB ) mFloxelType = typeA;
     
-  } // switchFloxelTypes()
+  } // swapFloxelTypes()
   
   // adjust the vents to control the flow
   public void advance() {
@@ -150,6 +203,7 @@ public class VentControl {
 
     trackEnemy();
     updateTarget();
+    updateNoiseSlices();
     
     float flowWalls[][][] = mFlow.walls();
     for ( int iy = 0 ; iy < flowWalls.length ; iy++ ) {
@@ -157,7 +211,7 @@ public class VentControl {
         final float x = ix + 0.5f,
                     y = iy + 0.5f;
         
-        final float ampNoise = inFlowNoise(x, y);
+        final float ampNoise = inFlowNoise(ix, iy);
         final float ampHunt  = inFlowHunt(x, y);
         
         assert( mHuntActive >= 0.0f && mHuntActive <= 1.0f );
@@ -175,6 +229,8 @@ public class VentControl {
   } // advance()
 
   // follow a cluster of enemy particles
+  // (every other population counts as the enemy, and the most crowded cell 
+  //  of any of them is the one tracked)
   private void trackEnemy() {
 
     if ( mOverrideTracking ) {
@@ -182,31 +238,32 @@ public class VentControl {
       return;
     }
     
-    final int otherType = 1 - mFloxelType;    
-    final int count[][] = mFloxels.countFloxels(otherType);
-    int max  = 0,
-        xMax = -1,
-        yMax = -1;
-    int maxTrack  = 0,
+    final FloxelDensity density = mFloxels.density();
+    final int numTypes = mFloxels.numFloxelTypes();
+    
+    // (the tracking position is always the centre of a cell)
+    int max       = 0,
+        xMax      = -1,
+        yMax      = -1,
+        maxTrack  = 0,
         xMaxTrack = -1,
         yMaxTrack = -1;
-    for ( int iy = 0 ; iy < count.length ; iy++ ) {
-      for ( int ix = 0 ; ix < count[iy].length ; ix++ ) {
-        if ( count[iy][ix] > max ) {
-          max = count[iy][ix];
-          xMax = ix;
-          yMax = iy;
-        }
-        if ( mTrackingX >= 0 && mTrackingY >= 0 ) {
-          float dx = (ix+0.5f) - mTrackingX,
-                dy = (iy+0.5f) - mTrackingY;
-          float d  = (float)Math.sqrt(dx*dx + dy*dy) / kTrackingRadius;
-          int   c  = Math.round( count[iy][ix] * Math.max(0.0f, 1-d) );
-          if ( c > maxTrack ) {
-            maxTrack = c;
-            xMaxTrack = ix;
-            yMaxTrack = iy;
-          }
+    for ( int otherType = 0 ; otherType < numTypes ; otherType++ ) {
+      if ( otherType == mFloxelType ) continue;
+      
+      if ( density.maxCount(otherType) > max ) {
+        max  = density.maxCount(otherType);
+        xMax = density.maxX(otherType);
+        yMax = density.maxY(otherType);
+      }
+      
+      if ( mTrackingX >= 0 && mTrackingY >= 0 ) {
+        density.weightedPeak(otherType, (int)mTrackingX, (int)mTrackingY,
+                             kTrackingRadius, mTrackingPeak);
+        if ( mTrackingPeak.count > maxTrack ) {
+          maxTrack  = mTrackingPeak.count;
+          xMaxTrack = mTrackingPeak.x;
+          yMaxTrack = mTrackingPeak.y;
         }
       }
     }
@@ -314,18 +371,57 @@ public class VentControl {
     
   } // inFlowHunt()
   
+  // make sure the cached noise covers the current time
+  // (moving on to the next time slice only needs one new set of values)
+  private void updateNoiseSlices() {
+
+    if ( mNoiseStrength == 0.0 ) return;
+    
+    final float z = kNoiseTimeScale*mNoiseTime;
+    final int index = (int)Math.floor(z/kNoiseSliceStep);
+    mNoiseSliceFrac = z/kNoiseSliceStep - index;
+    
+    if ( index == mNoiseSliceIndex ) return;
+    
+    if ( mNoiseSliceIndex >= 0 && index == mNoiseSliceIndex + 1 ) {
+      final float temp[] = mNoiseSlice0;
+      mNoiseSlice0 = mNoiseSlice1;
+      mNoiseSlice1 = temp;
+    } else {
+      fillNoiseSlice(mNoiseSlice0, index*kNoiseSliceStep);
+    }
+    fillNoiseSlice(mNoiseSlice1, (index+1)*kNoiseSliceStep);
+    mNoiseSliceIndex = index;
+    
+  } // updateNoiseSlices()
+  
+  // work out the noise for each tile at a particular time
+  // (a whole grid of each octave is evaluated in one go)
+  private void fillNoiseSlice(float slice[], float z) {
+
+    mNoise.valueGrid(mNoiseXs[0], mNoiseYs[0], z, slice);
+    float amplitude = 1.0f;
+    for ( int octave = 1 ; octave < kNoiseOctaves ; octave++ ) {
+      amplitude *= 0.5f;
+      final int scale = ( 1 << octave );
+      mNoise.valueGrid(mNoiseXs[octave], mNoiseYs[octave], scale*z, 
+                       mNoiseOctave);
+      for ( int k = 0 ; k < slice.length ; k++ ) {
+        slice[k] += amplitude*mNoiseOctave[k];
+      }
+    }
+    
+  } // fillNoiseSlice()
+  
   // random noise contribution to the in-flow (between -1 and +1)
-  private float inFlowNoise(float xTile, float yTile) {
+  // (interpolated from the cached time slices, see updateNoiseSlices())
+  private float inFlowNoise(int ix, int iy) {
 
     if ( mNoiseStrength == 0.0 ) return 0.0f;
     
-    final float x = xTile/Env.numTilesX(),
-                y = yTile/Env.numTilesY(),
-                z = kNoiseTimeScale*mNoiseTime;
-    
-    final float noise = mNoise.value(x, y, z)
-                      + 0.5f*mNoise.value(2*x, 2*y, 2*z)
-                      + 0.25f*mNoise.value(4*x, 4*y, 4*z);
+    final int k = ix + iy*mFlow.baseXSize();
+    final float noise = (1.0f - mNoiseSliceFrac)*mNoiseSlice0[k]
+                      + mNoiseSliceFrac*mNoiseSlice1[k];
     
     final float h = Math.max(-1.0f, Math.min(+1.0f, kNoiseCeiling*noise));
     return (mNoiseStrength * h);
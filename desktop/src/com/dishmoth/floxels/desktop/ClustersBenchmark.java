@@ -0,0 +1,147 @@
+/*
+ *  ClustersBenchmark.java
+ *  Copyright (c) 2016 Simon Hern
+ *  Contact: dishmoth@yahoo.co.uk, dishmoth.com, github.com/dishmoth
+ */
+
+package com.dishmoth.floxels.desktop;
+
+import java.util.Random;
+
+import com.dishmoth.floxels.Clusters;
+import com.dishmoth.floxels.Env;
+import com.dishmoth.floxels.Flow;
+import com.dishmoth.floxels.MazeData;
+import com.dishmoth.floxels.Mazes;
+
+// time the cluster calculation for different arrangements of particles
+// (arguments: maze index, cluster grid subdivisions, number of repeats)
+public class ClustersBenchmark {
+
+  // default settings
+  static private final int kDefaultMaze         = 3,
+                           kDefaultSubdivisions = 2,
+                           kDefaultRepeats      = 2000;
+
+  // number of particles the clusters are scored against
+  static private final int kNumParticles = 1000;
+
+  // arrangements of particles to try
+  // (blobs: a few large clusters; noise: random cells; checker: isolated
+  //  cells; diagonal: one cluster joined only through corners, which makes
+  //  many merges; stripes: long thin clusters)
+  static private final String kLayouts[] = { "blobs", "noise", "checker",
+                                             "diagonal", "stripes" };
+
+  // main
+  public static void main(String[] arg) {
+
+    final int mazeIndex    = (arg.length > 0) ? Integer.parseInt(arg[0])
+                                              : kDefaultMaze,
+              subdivisions = (arg.length > 1) ? Integer.parseInt(arg[1])
+                                              : kDefaultSubdivisions,
+              repeats      = (arg.length > 2) ? Integer.parseInt(arg[2])
+                                              : kDefaultRepeats;
+
+    Flow flow = makeFlow( Mazes.get(mazeIndex) );
+    Clusters clusters = new Clusters(flow, subdivisions, kNumParticles);
+
+    for ( String layout : kLayouts ) {
+      float points[] = makeLayout(layout, flow, subdivisions);
+
+      long checkSum = 0;
+      for ( int k = 0 ; k < repeats/10 ; k++ ) {
+        checkSum += runClusters(clusters, points);
+      }
+
+      final long startTime = System.nanoTime();
+      for ( int k = 0 ; k < repeats ; k++ ) {
+        checkSum += runClusters(clusters, points);
+      }
+      final long time = System.nanoTime() - startTime;
+
+      System.out.printf("%-8s %6d points  %8.2f us per call  (check %d)%n",
+                        layout, points.length/2,
+                        time/1000.0/repeats, checkSum);
+    }
+
+  } // main()
+
+  // a flow with the walls of a maze
+  static private Flow makeFlow(MazeData maze) {
+
+    final int nx = maze.numTilesX(),
+              ny = maze.numTilesY();
+    Flow flow = new Flow(nx, ny, 1);
+    float walls[][][] = flow.walls();
+    for ( int iy = 0 ; iy < ny ; iy++ ) {
+      for ( int ix = 0 ; ix < nx ; ix++ ) {
+        walls[iy][ix][Env.NORTH] = maze.horizWall(ix, iy)   ? 0 : Flow.OPEN;
+        walls[iy][ix][Env.SOUTH] = maze.horizWall(ix, iy+1) ? 0 : Flow.OPEN;
+        walls[iy][ix][Env.WEST]  = maze.vertWall(ix, iy)    ? 0 : Flow.OPEN;
+        walls[iy][ix][Env.EAST]  = maze.vertWall(ix+1, iy)  ? 0 : Flow.OPEN;
+      }
+    }
+    flow.wallsChanged();
+    return flow;
+
+  } // makeFlow()
+
+  // positions (x0,y0,x1,y1,...) of particles in one cell of the cluster
+  // grid out of every few, arranged in a particular way
+  static private float[] makeLayout(String layout, Flow flow,
+                                    int subdivisions) {
+
+    final int nx = flow.baseXSize()*subdivisions,
+              ny = flow.baseYSize()*subdivisions;
+    final float delta = 1.0f/subdivisions;
+    Random random = new Random(1);
+
+    float points[] = new float[2*nx*ny];
+    int num = 0;
+    for ( int iy = 0 ; iy < ny ; iy++ ) {
+      for ( int ix = 0 ; ix < nx ; ix++ ) {
+        boolean used;
+        if ( layout.equals("blobs") ) {
+          final int bx = ix/(2*subdivisions),
+                    by = iy/(2*subdivisions);
+          used = ( (bx + by) % 3 == 0 );
+        } else if ( layout.equals("noise") ) {
+          used = ( random.nextFloat() < 0.4f );
+        } else if ( layout.equals("checker") ) {
+          used = ( ix % 2 == 0 && iy % 2 == 0 );
+        } else if ( layout.equals("diagonal") ) {
+          used = ( (ix + iy) % 2 == 0 );
+        } else {
+          used = ( ix % 2 == 0 );
+        }
+        if ( !used ) continue;
+        points[num++] = (ix + 0.5f)*delta;
+        points[num++] = (iy + 0.5f)*delta;
+      }
+    }
+
+    float result[] = new float[num];
+    System.arraycopy(points, 0, result, 0, num);
+    return result;
+
+  } // makeLayout()
+
+  // calculate the clusters for some particles, returning the total score
+  static private long runClusters(Clusters clusters, float points[]) {
+
+    clusters.reset();
+    for ( int k = 0 ; k < points.length ; k += 2 ) {
+      clusters.addPoint(points[k], points[k+1]);
+    }
+    clusters.makeClusters();
+
+    long total = 0;
+    for ( int k = 0 ; k < points.length ; k += 2 ) {
+      total += clusters.getClusterScore(points[k], points[k+1]);
+    }
+    return total;
+
+  } // runClusters()
+
+} // class ClustersBenchmark
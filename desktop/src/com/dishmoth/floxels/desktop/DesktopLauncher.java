@@ -10,6 +10,7 @@ import com.badlogic.gdx.Files.FileType;
 import com.badlogic.gdx.Graphics.DisplayMode;
 import com.badlogic.gdx.backends.lwjgl.LwjglApplication;
 import com.badlogic.gdx.backends.lwjgl.LwjglApplicationConfiguration;
+import com.dishmoth.floxels.Env;
 import com.dishmoth.floxels.FloxelsGame;
 
 public class DesktopLauncher {
@@ -27,6 +28,8 @@ public class DesktopLauncher {
     config.addIcon("DesktopIcon128.png", FileType.Internal);
     config.addIcon("DesktopIcon32.png", FileType.Internal);
     config.addIcon("DesktopIcon16.png", FileType.Internal);
+    Env.setTaskPool(new ForkJoinTaskPool());
+    
 		new LwjglApplication(new FloxelsGame(), config);
 	}
 }
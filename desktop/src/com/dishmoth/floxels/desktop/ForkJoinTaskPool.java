@@ -0,0 +1,106 @@
+/*
+ *  ForkJoinTaskPool.java
+ *  Copyright (c) 2016 Simon Hern
+ *  Contact: dishmoth@yahoo.co.uk, dishmoth.com, github.com/dishmoth
+ */
+
+package com.dishmoth.floxels.desktop;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import com.dishmoth.floxels.TaskPool;
+
+// runs the parts of a task across the cores of the machine
+public class ForkJoinTaskPool extends TaskPool {
+
+  // one pool shared by everything in the game
+  private final ForkJoinPool mPool;
+
+  // a range of parts, split in two until only one part remains
+  static private class PartsAction extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final Task mTask;
+    private final int  mPart0,
+                       mPart1;
+    PartsAction(Task task, int part0, int part1) {
+      mTask = task;
+      mPart0 = part0;
+      mPart1 = part1;
+    }
+    @Override
+    protected void compute() {
+      if ( mPart1 - mPart0 == 1 ) {
+        mTask.run(mPart0);
+      } else {
+        final int mid = (mPart0 + mPart1)/2;
+        invokeAll(new PartsAction(mTask, mPart0, mid),
+                  new PartsAction(mTask, mid, mPart1));
+      }
+    }
+  } // class ForkJoinTaskPool.PartsAction
+
+  // a task running in the background
+  static private class BackgroundJob extends Job {
+    private final ForkJoinTask<Void> mAction;
+    BackgroundJob(ForkJoinTask<Void> action) { mAction = action; }
+    @Override
+    public boolean done() { return mAction.isDone(); }
+  } // class ForkJoinTaskPool.BackgroundJob
+
+  // constructor
+  public ForkJoinTaskPool() {
+
+    mPool = new ForkJoinPool();
+
+  } // constructor
+
+  // number of threads available
+  @Override
+  public int numThreads() { return mPool.getParallelism(); }
+
+  // run every part of a task, returning once they are all complete
+  @Override
+  public void run(Task task, int numParts) {
+
+    if ( numParts <= 1 || numThreads() <= 1 ) {
+      super.run(task, numParts);
+      return;
+    }
+
+    PartsAction action = new PartsAction(task, 0, numParts);
+    if ( ForkJoinTask.inForkJoinPool() ) {
+      action.invoke();
+    } else {
+      mPool.invoke(action);
+    }
+
+  } // run()
+
+  // start running every part of a task in the background, returning at once
+  @Override
+  public Job start(Task task, int numParts) {
+    
+    if ( numParts <= 0 || numThreads() <= 1 ) {
+      return super.start(task, numParts);
+    }
+    
+    PartsAction action = new PartsAction(task, 0, numParts);
+    return new BackgroundJob(mPool.submit(action));
+    
+  } // start()
+  
+  // wait until a job from start() is complete
+  @Override
+  public void finish(Job job) {
+    
+    if ( job instanceof BackgroundJob ) {
+      ((BackgroundJob)job).mAction.join();
+    } else {
+      super.finish(job);
+    }
+    
+  } // finish()
+
+} // class ForkJoinTaskPool
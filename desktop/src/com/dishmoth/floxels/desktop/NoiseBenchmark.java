@@ -0,0 +1,118 @@
+/*
+ *  NoiseBenchmark.java
+ *  Copyright (c) 2016 Simon Hern
+ *  Contact: dishmoth@yahoo.co.uk, dishmoth.com, github.com/dishmoth
+ */
+
+package com.dishmoth.floxels.desktop;
+
+import com.dishmoth.floxels.Perlin2D;
+import com.dishmoth.floxels.Perlin3D;
+
+// time the noise generators, one point at a time against a row at a time
+// (arguments: grid width, grid height, number of repeats)
+// (the two ways should give exactly the same values, and any differences
+//  are reported)
+public class NoiseBenchmark {
+
+  // default settings
+  static private final int kDefaultXSize   = 256,
+                           kDefaultYSize   = 256,
+                           kDefaultRepeats = 20;
+
+  // period of the two-dimensional noise (as for the background image)
+  static private final int kPeriod2D = 8;
+
+  // main
+  public static void main(String[] arg) {
+
+    final int xSize   = (arg.length > 0) ? Integer.parseInt(arg[0])
+                                         : kDefaultXSize,
+              ySize   = (arg.length > 1) ? Integer.parseInt(arg[1])
+                                         : kDefaultYSize,
+              repeats = (arg.length > 2) ? Integer.parseInt(arg[2])
+                                         : kDefaultRepeats;
+
+    Perlin2D noise2D = new Perlin2D(1, kPeriod2D);
+    Perlin3D noise3D = new Perlin3D(1);
+
+    // positions spread over a few cells of the noise in each direction
+    float xs[] = new float[xSize],
+          ys[] = new float[ySize];
+    for ( int ix = 0 ; ix < xSize ; ix++ ) xs[ix] = ix*(4.0f/xSize) - 1.3f;
+    for ( int iy = 0 ; iy < ySize ; iy++ ) ys[iy] = iy*(4.0f/ySize) - 0.7f;
+    final float z = 2.1f;
+
+    float scalar[] = new float[xSize*ySize],
+          batch[]  = new float[xSize*ySize];
+
+    for ( int pass = 0 ; pass < 2 ; pass++ ) {
+      final boolean report = ( pass == 1 );
+      final int num = report ? repeats : Math.max(1, repeats/10);
+
+      long time = System.nanoTime();
+      for ( int k = 0 ; k < num ; k++ ) scalar2D(noise2D, xs, ys, scalar);
+      final long timeScalar2D = System.nanoTime() - time;
+
+      time = System.nanoTime();
+      for ( int k = 0 ; k < num ; k++ ) noise2D.valueGrid(xs, ys, batch);
+      final long timeBatch2D = System.nanoTime() - time;
+      final int diff2D = countDifferences(scalar, batch);
+
+      time = System.nanoTime();
+      for ( int k = 0 ; k < num ; k++ ) scalar3D(noise3D, xs, ys, z, scalar);
+      final long timeScalar3D = System.nanoTime() - time;
+
+      time = System.nanoTime();
+      for ( int k = 0 ; k < num ; k++ ) noise3D.valueGrid(xs, ys, z, batch);
+      final long timeBatch3D = System.nanoTime() - time;
+      final int diff3D = countDifferences(scalar, batch);
+
+      if ( !report ) continue;
+      final double points = (double)xSize*ySize*num;
+      System.out.printf("Perlin2D  scalar %6.2f ns/point  batch %6.2f "
+                        + "ns/point  (%d differences)%n",
+                        timeScalar2D/points, timeBatch2D/points, diff2D);
+      System.out.printf("Perlin3D  scalar %6.2f ns/point  batch %6.2f "
+                        + "ns/point  (%d differences)%n",
+                        timeScalar3D/points, timeBatch3D/points, diff3D);
+    }
+
+  } // main()
+
+  // evaluate two-dimensional noise on a grid one point at a time
+  static private void scalar2D(Perlin2D noise, float xs[], float ys[],
+                               float values[]) {
+
+    for ( int iy = 0 ; iy < ys.length ; iy++ ) {
+      for ( int ix = 0 ; ix < xs.length ; ix++ ) {
+        values[ix + iy*xs.length] = noise.value(xs[ix], ys[iy]);
+      }
+    }
+
+  } // scalar2D()
+
+  // evaluate three-dimensional noise on a grid one point at a time
+  static private void scalar3D(Perlin3D noise, float xs[], float ys[],
+                               float z, float values[]) {
+
+    for ( int iy = 0 ; iy < ys.length ; iy++ ) {
+      for ( int ix = 0 ; ix < xs.length ; ix++ ) {
+        values[ix + iy*xs.length] = noise.value(xs[ix], ys[iy], z);
+      }
+    }
+
+  } // scalar3D()
+
+  // number of entries that are not identical in two arrays
+  static private int countDifferences(float a[], float b[]) {
+
+    int num = 0;
+    for ( int k = 0 ; k < a.length ; k++ ) {
+      if ( Float.floatToIntBits(a[k]) != Float.floatToIntBits(b[k]) ) num++;
+    }
+    return num;
+
+  } // countDifferences()
+
+} // class NoiseBenchmark